@@ -0,0 +1,185 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Agregador local de métricas de llamadas en ventanas móviles de 1 minuto, 1 hora y 24 horas.
+// Los contadores viven en arrays primitivos con un cubo por minuto (1440 cubos en anillo);
+// cada evento de CALL_STATE actualiza el cubo del minuto actual y el informe periódico suma
+// los cubos de cada ventana. El servidor recibe un resumen por dispositivo en lugar de
+// cada evento.
+public class CallAnalytics {
+    private static CallAnalytics instance;
+
+    private static final String REPORT_JOB = "call-analytics";
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final int BUCKETS = 24 * 60;
+
+    // Contadores por cubo
+    private static final int CALLS = 0;
+    private static final int INCOMING = 1;
+    private static final int OUTGOING = 2;
+    private static final int ANSWERED = 3;
+    private static final int UNANSWERED = 4;
+    private static final int FAILED = 5;
+    // Histograma de duración de conversación: límites superiores en segundos (el último es abierto)
+    private static final int[] DURATION_LIMITS = {10, 30, 60, 180, 600};
+    private static final int HISTOGRAM = 6;
+    private static final int STRIDE = HISTOGRAM + DURATION_LIMITS.length + 1;
+
+    // Ventanas informadas, en cubos
+    private static final int[] WINDOWS = {1, 60, BUCKETS};
+    private static final String[] WINDOW_NAMES = {"1m", "1h", "24h"};
+
+    private final int[] counters = new int[BUCKETS * STRIDE];
+    private final long[] ringMs = new long[BUCKETS];
+    private final long[] talkSeconds = new long[BUCKETS];
+    // Minuto absoluto que contiene cada cubo, para detectar cubos caducados
+    private final long[] bucketMinute = new long[BUCKETS];
+
+    // Llamada en curso (solo hay una a la vez)
+    private String activeCallId;
+    private long startedAt;
+    private long answeredAt;
+
+    // Constructor privado (Singleton)
+    private CallAnalytics(Context context) {
+        final RemoteConfig remoteConfig = RemoteConfig.getInstance(context);
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, this::onCallState);
+        TelemetryScheduler.getInstance(context).register(REPORT_JOB, new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                return remoteConfig.get().statusIntervalMs(profile);
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                RestApiManager.getInstance().sendCallStats(summary());
+            }
+        });
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized CallAnalytics getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallAnalytics(context);
+        }
+        return instance;
+    }
+
+    private synchronized void onCallState(CallStatusEvent event) {
+        if (event.status == null) {
+            return;
+        }
+        long now = event.timestamp > 0 ? event.timestamp : System.currentTimeMillis();
+        switch (event.status) {
+            case "started":
+                // Una salida de "dialing" ya abrió la llamada con el mismo callId
+                if (event.callId != null && event.callId.equals(activeCallId)) {
+                    break;
+                }
+                // fall through
+            case "dialing":
+                activeCallId = event.callId;
+                startedAt = now;
+                answeredAt = 0;
+                int base = bucket(now) * STRIDE;
+                counters[base + CALLS]++;
+                counters[base + ("incoming".equals(event.direction) ? INCOMING : OUTGOING)]++;
+                break;
+            case "answered":
+                if (startedAt > 0 && answeredAt == 0) {
+                    answeredAt = now;
+                }
+                break;
+            case "ended":
+                if (startedAt == 0) {
+                    break;
+                }
+                int slot = bucket(now);
+                if (answeredAt > 0) {
+                    counters[slot * STRIDE + ANSWERED]++;
+                    ringMs[slot] += answeredAt - startedAt;
+                    talkSeconds[slot] += event.duration;
+                    counters[slot * STRIDE + HISTOGRAM + durationBucket(event.duration)]++;
+                } else {
+                    counters[slot * STRIDE + UNANSWERED]++;
+                }
+                activeCallId = null;
+                startedAt = 0;
+                answeredAt = 0;
+                break;
+            case "failed":
+                counters[bucket(now) * STRIDE + FAILED]++;
+                activeCallId = null;
+                startedAt = 0;
+                answeredAt = 0;
+                break;
+        }
+    }
+
+    // Resumen compacto: por ventana [llamadas, entrantes, salientes, contestadas, no contestadas,
+    // fallidas, histograma de duración..., ring medio ms, conversación media s]
+    public synchronized JSONObject summary() {
+        long currentMinute = System.currentTimeMillis() / MINUTE_MS;
+        JSONObject windows = new JSONObject();
+        try {
+            for (int w = 0; w < WINDOWS.length; w++) {
+                int[] totals = new int[STRIDE];
+                long ring = 0;
+                long talk = 0;
+                for (int i = 0; i < WINDOWS[w]; i++) {
+                    long minute = currentMinute - i;
+                    int slot = (int) (minute % BUCKETS);
+                    if (bucketMinute[slot] != minute) {
+                        continue;
+                    }
+                    for (int c = 0; c < STRIDE; c++) {
+                        totals[c] += counters[slot * STRIDE + c];
+                    }
+                    ring += ringMs[slot];
+                    talk += talkSeconds[slot];
+                }
+                JSONArray values = new JSONArray();
+                for (int total : totals) {
+                    values.put(total);
+                }
+                int answered = totals[ANSWERED];
+                values.put(answered > 0 ? ring / answered : 0);
+                values.put(answered > 0 ? talk / answered : 0);
+                windows.put(WINDOW_NAMES[w], values);
+            }
+        } catch (JSONException e) {
+            // Claves fijas y valores numéricos: no ocurre
+        }
+        return windows;
+    }
+
+    // Cubo del minuto de "time", vaciándolo si contenía un minuto anterior
+    private int bucket(long time) {
+        long minute = time / MINUTE_MS;
+        int slot = (int) (minute % BUCKETS);
+        if (bucketMinute[slot] != minute) {
+            bucketMinute[slot] = minute;
+            int base = slot * STRIDE;
+            for (int c = 0; c < STRIDE; c++) {
+                counters[base + c] = 0;
+            }
+            ringMs[slot] = 0;
+            talkSeconds[slot] = 0;
+        }
+        return slot;
+    }
+
+    private static int durationBucket(int seconds) {
+        for (int i = 0; i < DURATION_LIMITS.length; i++) {
+            if (seconds < DURATION_LIMITS[i]) {
+                return i;
+            }
+        }
+        return DURATION_LIMITS.length;
+    }
+}
@@ -0,0 +1,40 @@
+package com.telefonia.personal;
+
+public class CallCommand {
+    // Tipo de comando (CALL, HANGUP, ...)
+    public String type;
+    public String commandId;
+    public long sequence;
+    public long issuedAt;
+    public long expiresAt;
+    // Hora de ejecución (reloj del servidor); 0 = inmediata
+    public long executeAt;
+    public String traceId;
+    // Hora local de recepción (etapa RECEIVED de la traza); se guarda con los comandos programados
+    public long receivedAt;
+    
+    // Traza local del comando (no se serializa)
+    public transient TraceContext trace;
+    
+    // Datos de la llamada
+    public String callId;
+    public String phoneNumber;
+    public String direction;
+    
+    // Documento de configuración remota (JSON), solo en comandos CONFIG
+    public String config;
+    
+    // Constructor vacío
+    public CallCommand() {
+        // Constructor vacío necesario para deserialización
+    }
+    
+    @Override
+    public String toString() {
+        return "CallCommand{" +
+               "type='" + type + '\'' +
+               ", callId='" + callId + '\'' +
+               ", phoneNumber='" + phoneNumber + '\'' +
+               '}';
+    }
+}
@@ -0,0 +1,61 @@
+package com.telefonia.personal;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Cola de eventos de llamada pendientes de envío, compactada por callId.
+// Los eventos que no se pueden entregar en vivo (WebSocket caído) se funden en un único
+// CallRecord por llamada, en orden de llegada; al reconectar se envía un registro por
+// llamada en lugar de cada evento. Acotada: si se llena se descarta la llamada más antigua.
+// No es segura entre hilos; quien la usa sincroniza sobre ella.
+public class CallEventQueue {
+    private static final String TAG = "CallEventQueue";
+
+    private final int capacity;
+    private final LinkedHashMap<String, CallRecord> records = new LinkedHashMap<>();
+
+    public CallEventQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Hay eventos de esta llamada esperando: los siguientes deben unirse a su registro
+    public boolean contains(String callId) {
+        return callId != null && records.containsKey(callId);
+    }
+
+    // Añadir un evento al registro de su llamada
+    public void add(CallStatusEvent event) {
+        if (event.callId == null) {
+            Log.w(TAG, "Evento de llamada sin callId descartado: " + event);
+            return;
+        }
+        CallRecord record = records.get(event.callId);
+        if (record == null) {
+            if (records.size() >= capacity) {
+                Iterator<Map.Entry<String, CallRecord>> oldest = records.entrySet().iterator();
+                Log.w(TAG, "Cola llena, se descarta " + oldest.next().getValue());
+                oldest.remove();
+            }
+            record = new CallRecord();
+            records.put(event.callId, record);
+        }
+        record.merge(event);
+    }
+
+    // Registro más antiguo pendiente, o null si la cola está vacía
+    public CallRecord peek() {
+        Iterator<CallRecord> iterator = records.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    public void remove(CallRecord record) {
+        records.remove(record.callId);
+    }
+
+    public int size() {
+        return records.size();
+    }
+}
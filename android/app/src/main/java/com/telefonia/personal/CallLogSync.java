@@ -0,0 +1,171 @@
+package com.telefonia.personal;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.CallLog;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Sincroniza el registro de llamadas de forma incremental. Solo se consultan las filas con
+// _ID mayor que la marca persistida, en páginas acotadas, y la marca avanza únicamente cuando
+// el servidor confirma el lote. Los lotes llevan un id estable (rango de _ID) para que el
+// servidor pueda descartar duplicados si un reintento llega dos veces.
+public class CallLogSync {
+    private static final String TAG = "CallLogSync";
+    private static CallLogSync instance;
+
+    private static final String SYNC_ENDPOINT = "/api/public/device-call-log";
+    private static final String WATERMARK_KEY = "call_log_watermark";
+
+    private static final String[] PROJECTION = {
+        CallLog.Calls._ID,
+        CallLog.Calls.NUMBER,
+        CallLog.Calls.TYPE,
+        CallLog.Calls.DATE,
+        CallLog.Calls.DURATION
+    };
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean syncQueued = new AtomicBoolean(false);
+    private final PhoneNumberNormalizer normalizer;
+    private final RemoteConfig remoteConfig;
+
+    // Constructor privado (Singleton)
+    private CallLogSync(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = KeyValueStore.getInstance(this.context);
+        this.normalizer = PhoneNumberNormalizer.getInstance(this.context);
+        this.remoteConfig = RemoteConfig.getInstance(this.context);
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized CallLogSync getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallLogSync(context);
+        }
+        return instance;
+    }
+
+    // Solicitar una sincronización; las solicitudes repetidas mientras hay una en cola se agrupan
+    public void requestSync() {
+        if (!syncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            syncQueued.set(false);
+            syncPending();
+        });
+    }
+
+    // Sube todas las filas nuevas, página por página, hasta vaciar el registro o fallar
+    private void syncPending() {
+        String deviceId = preferences.getString("deviceId", "");
+        if (deviceId.isEmpty()) {
+            return;
+        }
+
+        long watermark = preferences.getLong(WATERMARK_KEY, 0);
+        // Tamaño de página de la configuración remota, fijo durante toda la sincronización
+        int batchSize = remoteConfig.get().callLogBatchSize;
+        try {
+            while (true) {
+                JSONArray records = new JSONArray();
+                long lastId = readPage(watermark, records, batchSize);
+                if (records.length() == 0) {
+                    return;
+                }
+
+                long acked = uploadBatch(deviceId, watermark, lastId, records);
+                if (acked < lastId) {
+                    Log.w(TAG, "Lote confirmado parcialmente hasta " + acked);
+                }
+                if (acked <= watermark) {
+                    return;
+                }
+                watermark = acked;
+                preferences.edit().putLong(WATERMARK_KEY, watermark).apply();
+
+                if (records.length() < batchSize) {
+                    return;
+                }
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Sin permiso para leer el registro de llamadas", e);
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error al sincronizar registro de llamadas, se reintentará", e);
+        }
+    }
+
+    // Lee una página de filas con _ID > afterId y las añade como registros compactos.
+    // Devuelve el último _ID leído.
+    private long readPage(long afterId, JSONArray records, int batchSize) throws JSONException {
+        ContentResolver resolver = context.getContentResolver();
+        String selection = CallLog.Calls._ID + " > ?";
+        String[] selectionArgs = { String.valueOf(afterId) };
+        String sortOrder = CallLog.Calls._ID + " ASC";
+
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, batchSize);
+            cursor = resolver.query(CallLog.Calls.CONTENT_URI, PROJECTION, queryArgs, null);
+        } else {
+            cursor = resolver.query(CallLog.Calls.CONTENT_URI, PROJECTION, selection, selectionArgs,
+                    sortOrder + " LIMIT " + batchSize);
+        }
+        if (cursor == null) {
+            return afterId;
+        }
+
+        long lastId = afterId;
+        try {
+            while (cursor.moveToNext() && records.length() < batchSize) {
+                // Registro compacto: [id, número, tipo, fecha, duración, número normalizado]
+                JSONArray record = new JSONArray();
+                lastId = cursor.getLong(0);
+                String number = cursor.getString(1);
+                record.put(lastId);
+                record.put(number);
+                record.put(cursor.getInt(2));
+                record.put(cursor.getLong(3));
+                record.put(cursor.getInt(4));
+                record.put(normalizer.normalize(number));
+                records.put(record);
+            }
+        } finally {
+            cursor.close();
+        }
+        return lastId;
+    }
+
+    // Envía un lote y devuelve el último _ID confirmado por el servidor
+    private long uploadBatch(String deviceId, long fromId, long toId, JSONArray records) throws IOException, JSONException {
+        JSONObject body = new JSONObject();
+        body.put("deviceId", deviceId);
+        body.put("batchId", deviceId + ":" + fromId + "-" + toId);
+        body.put("fromId", fromId);
+        body.put("toId", toId);
+        body.put("fields", "id,number,type,date,duration,numberKey");
+        body.put("records", records);
+
+        JSONObject response = RestApiManager.getInstance().postBlocking(SYNC_ENDPOINT, body);
+        return response.optLong("ackedUpTo", fromId);
+    }
+}
@@ -0,0 +1,72 @@
+package com.telefonia.personal;
+
+import java.util.Arrays;
+
+// Registro compacto de una llamada: reúne en un solo mensaje los eventos de estado que se
+// acumularon sin poder enviarse, conservando cada transición con su marca de tiempo.
+public class CallRecord {
+    public static final String TYPE = "CALL_RECORD";
+
+    // Datos de la llamada (los últimos conocidos)
+    public String callId;
+    public String phoneNumber;
+    public String numberKey;
+    public String direction;
+    public int duration;
+    public String traceId;
+    public long[] spans;
+    public MetricSeries.Summary[] samples;
+
+    // Transiciones en orden de llegada
+    public String[] statuses = new String[4];
+    public long[] timestamps = new long[4];
+    public int transitions;
+
+    // Constructor vacío
+    public CallRecord() {
+        // Constructor vacío necesario para serialización
+    }
+
+    // Añadir un evento: se guarda la transición y se completan los datos que traiga
+    public void merge(CallStatusEvent event) {
+        if (transitions == statuses.length) {
+            statuses = Arrays.copyOf(statuses, transitions * 2);
+            timestamps = Arrays.copyOf(timestamps, transitions * 2);
+        }
+        statuses[transitions] = event.status;
+        timestamps[transitions] = event.timestamp;
+        transitions++;
+
+        if (event.callId != null) {
+            callId = event.callId;
+        }
+        if (event.phoneNumber != null) {
+            phoneNumber = event.phoneNumber;
+        }
+        if (event.numberKey != null) {
+            numberKey = event.numberKey;
+        }
+        if (event.direction != null) {
+            direction = event.direction;
+        }
+        duration = Math.max(duration, event.duration);
+        if (event.traceId != null) {
+            traceId = event.traceId;
+        }
+        if (event.spans != null) {
+            spans = event.spans;
+        }
+        if (event.samples != null) {
+            samples = event.samples;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CallRecord{" +
+               "callId='" + callId + '\'' +
+               ", transitions=" + transitions +
+               ", duration=" + duration +
+               '}';
+    }
+}
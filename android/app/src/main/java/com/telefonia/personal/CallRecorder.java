@@ -0,0 +1,254 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+public class CallRecorder {
+    private static final String TAG = "CallRecorder";
+    private static CallRecorder instance;
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    private static final long SEGMENT_BYTES = SAMPLE_RATE * 2 * 60; // 1 minuto de audio
+    private static final int UPLOAD_PARALLELISM = 2;
+    // Espera exponencial entre intentos de un segmento que no terminó de subir
+    private static final long UPLOAD_RETRY_BASE_MS = 30 * 1000;
+    private static final long UPLOAD_RETRY_MAX_MS = 30 * 60 * 1000;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final File recordingsDir;
+    // Un único hilo ordena las subidas de segmentos; cada segmento sube sus fragmentos en paralelo
+    private final ScheduledExecutorService uploadQueue = Executors.newSingleThreadScheduledExecutor();
+    // Intentos fallidos por segmento; solo se accede desde el hilo de subidas
+    private final Map<String, Integer> uploadAttempts = new HashMap<>();
+    private ChunkedUploader uploader;
+
+    private AudioRecord audioRecord;
+    private Thread captureThread;
+    // Bandera de la captura en curso; cada grabación tiene la suya para que stop() no espere al hilo
+    private AtomicBoolean capturing;
+    private volatile boolean isRecording = false;
+    private String currentRecordingId;
+
+    // Constructor privado (Singleton)
+    private CallRecorder(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = KeyValueStore.getInstance(this.context);
+        this.recordingsDir = new File(this.context.getFilesDir(), "recordings");
+        if (!recordingsDir.exists()) {
+            recordingsDir.mkdirs();
+        }
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized CallRecorder getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallRecorder(context);
+        }
+        return instance;
+    }
+
+    // Iniciar grabación de una llamada
+    public synchronized void start(String callId) {
+        if (isRecording) {
+            if (callId.equals(currentRecordingId)) {
+                return;
+            }
+            stop();
+        }
+
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
+        if (minBufferSize <= 0) {
+            Log.e(TAG, "Formato de audio no soportado");
+            return;
+        }
+        int bufferSize = minBufferSize * 4;
+
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.VOICE_COMMUNICATION,
+                    SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, bufferSize);
+            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                Log.e(TAG, "No se pudo inicializar AudioRecord");
+                audioRecord.release();
+                audioRecord = null;
+                return;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Sin permiso para grabar audio", e);
+            return;
+        }
+
+        currentRecordingId = callId;
+        isRecording = true;
+        final AudioRecord record = audioRecord;
+        final RecordingSegmentWriter writer = new RecordingSegmentWriter(
+                recordingsDir, callId, SEGMENT_BYTES, (segment, index) -> enqueueUpload(segment));
+
+        final Thread previous = captureThread;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        capturing = running;
+        captureThread = new Thread(() -> capture(previous, running, record, writer, bufferSize), "CallRecorder");
+        captureThread.start();
+        Log.i(TAG, "Grabación iniciada: " + callId);
+    }
+
+    // Detener la grabación en curso. Solo avisa al hilo de captura, que termina la lectura en
+    // curso, cierra el segmento y libera el micrófono por su cuenta: no se bloquea a quien llama
+    public synchronized void stop() {
+        if (!isRecording) {
+            return;
+        }
+        isRecording = false;
+        capturing.set(false);
+        audioRecord = null;
+        Log.i(TAG, "Grabación detenida: " + currentRecordingId);
+        currentRecordingId = null;
+    }
+
+    // Reanudar la subida de segmentos pendientes (por ejemplo, tras reiniciar el servicio).
+    // Los ".part" de una grabación interrumpida se publican antes, salvo si hay una captura viva
+    // (sus segmentos abiertos también son ".part"; los huérfanos se recuperan en otro arranque)
+    public void uploadPending() {
+        boolean capturingNow;
+        synchronized (this) {
+            capturingNow = captureThread != null && captureThread.isAlive();
+        }
+        File[] partials = capturingNow ? null
+                : recordingsDir.listFiles((dir, name) -> name.endsWith(RecordingSegmentWriter.PARTIAL_EXTENSION));
+        if (partials != null) {
+            for (File partial : partials) {
+                if (RecordingSegmentWriter.recoverPartial(partial) != null) {
+                    Log.i(TAG, "Segmento parcial recuperado: " + partial.getName());
+                }
+            }
+        }
+        File[] segments = recordingsDir.listFiles((dir, name) -> name.endsWith(RecordingSegmentWriter.SEGMENT_EXTENSION));
+        if (segments == null) {
+            return;
+        }
+        Arrays.sort(segments);
+        for (File segment : segments) {
+            enqueueUpload(segment);
+        }
+    }
+
+    // Bucle de captura: lee PCM en un buffer directo y lo vuelca al segmento actual. Antes de
+    // empezar espera (en este hilo) a que la captura anterior suelte el micrófono
+    private void capture(Thread previous, AtomicBoolean running, AudioRecord record,
+                         RecordingSegmentWriter writer, int bufferSize) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        try {
+            if (previous != null) {
+                previous.join();
+            }
+            record.startRecording();
+            while (running.get()) {
+                buffer.clear();
+                int read = record.read(buffer, bufferSize);
+                if (read < 0) {
+                    Log.e(TAG, "Error de lectura de audio: " + read);
+                    break;
+                }
+                buffer.limit(read);
+                writer.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error al escribir segmento de audio", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                record.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "AudioRecord ya estaba detenido");
+            }
+            record.release();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error al cerrar segmento de audio", e);
+            }
+        }
+    }
+
+    private void enqueueUpload(final File segment) {
+        uploadQueue.execute(() -> {
+            if (!segment.exists()) {
+                return;
+            }
+            ChunkedUploader currentUploader = getUploader();
+            if (currentUploader == null) {
+                Log.w(TAG, "Sin servidor configurado, segmento pendiente: " + segment.getName());
+                return;
+            }
+            String recordingId = RecordingSegmentWriter.recordingIdOf(segment);
+            int index = RecordingSegmentWriter.segmentIndexOf(segment);
+            try {
+                if (currentUploader.uploadSegment(segment, recordingId, index)) {
+                    segment.delete();
+                    uploadAttempts.remove(segment.getName());
+                    Log.d(TAG, "Segmento subido: " + segment.getName());
+                } else {
+                    Log.w(TAG, "Subida incompleta: " + segment.getName());
+                    scheduleRetry(segment);
+                }
+            } catch (ChunkedUploader.RejectedException e) {
+                // Rechazo definitivo: repetir la subida en cada arranque no cambiaría la respuesta
+                uploadAttempts.remove(segment.getName());
+                ChunkedUploader.discard(segment);
+                Log.e(TAG, "Segmento rechazado por el servidor y descartado " + segment.getName() + ": " + e.getMessage());
+            } catch (IOException e) {
+                Log.e(TAG, "Error al subir segmento " + segment.getName(), e);
+                scheduleRetry(segment);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Reanudar la subida más tarde, con espera exponencial por segmento
+    private void scheduleRetry(File segment) {
+        Integer previous = uploadAttempts.get(segment.getName());
+        int attempt = previous != null ? previous : 0;
+        uploadAttempts.put(segment.getName(), attempt + 1);
+        long delay = Math.min(UPLOAD_RETRY_MAX_MS, UPLOAD_RETRY_BASE_MS << Math.min(attempt, 10));
+        Log.i(TAG, "Se reintentará " + segment.getName() + " en " + delay / 1000 + " s");
+        uploadQueue.schedule(() -> enqueueUpload(segment), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ChunkedUploader getUploader() {
+        if (uploader == null) {
+            // El servidor se resuelve en cada petición: las subidas siguen el failover de endpoints
+            EndpointSelector endpoints = EndpointSelector.getInstance(context);
+            String deviceId = preferences.getString("deviceId", "");
+            if (endpoints.current().isEmpty() || deviceId.isEmpty()) {
+                return null;
+            }
+            OkHttpClient client = NetworkStack.getInstance(context).newClientBuilder()
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .build();
+            uploader = new ChunkedUploader(client, endpoints, deviceId,
+                    ChunkedUploader.DEFAULT_CHUNK_SIZE, UPLOAD_PARALLELISM);
+        }
+        return uploader;
+    }
+}
@@ -4,12 +4,21 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
+import android.telephony.TelephonyManager;
 import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
@@ -19,27 +28,57 @@ public class CallService extends Service {
     private static final String TAG = "CallService";
     private static final String CHANNEL_ID = "TelefoniaPersonalChannel";
     private static final int NOTIFICATION_ID = 1001;
+    private static final String STATUS_JOB = "device-status";
+    // Espera al evento de fin de PhoneStateReceiver antes de cerrar una llamada recuperada
+    private static final long RECOVERY_GRACE_MS = 1000;
+    
+    public static final String ACTION_CALL_STARTED = "com.telefonia.personal.CALL_STARTED";
+    public static final String ACTION_CALL_ANSWERED = "com.telefonia.personal.CALL_ANSWERED";
+    public static final String ACTION_CALL_ENDED = "com.telefonia.personal.CALL_ENDED";
     
     private static CallService instance;
     private WebSocketManager webSocketManager;
+    private CallRecorder callRecorder;
+    private TelemetryScheduler scheduler;
     private String currentCallId;
     private String currentPhoneNumber;
-    private boolean isCallActive = false;
+    // Lo lee también el hilo del planificador (informe de estado)
+    private volatile boolean isCallActive = false;
+    // Traza de la llamada en curso y el callId al que pertenece
+    private TraceContext currentTrace;
+    private String traceCallId;
+    // Instantánea persistida de la llamada en curso (null si no hay)
+    private CallStateSnapshot callState;
     
     public static void initiateCall(Context context, String phoneNumber, String callId) {
+        initiateCall(context, phoneNumber, callId, null);
+    }
+    
+    // Los comandos llegan por el hilo del pipeline o del WebSocket; el estado de la llamada solo se
+    // toca en el hilo principal, como handleCallEvent y la recuperación
+    public static void initiateCall(Context context, String phoneNumber, String callId, TraceContext trace) {
+        new Handler(Looper.getMainLooper()).post(() -> startCall(context, phoneNumber, callId, trace));
+    }
+
+    private static void startCall(Context context, String phoneNumber, String callId, TraceContext trace) {
         if (instance == null) {
             Log.e(TAG, "CallService no está en ejecución");
+            // No llegará ningún evento de fin: se publica el fallo para que quien retiene el
+            // hueco o el crédito de este CALL lo libere
+            WebSocketManager.getInstance(context).sendCallStatus(callId, "failed", phoneNumber, "outgoing", 0, trace);
             return;
         }
-        instance.makeCall(phoneNumber, callId);
+        instance.makeCall(phoneNumber, callId, trace);
     }
     
     public static void endCall(Context context) {
-        if (instance == null) {
-            Log.e(TAG, "CallService no está en ejecución");
-            return;
-        }
-        instance.hangup();
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (instance == null) {
+                Log.e(TAG, "CallService no está en ejecución");
+                return;
+            }
+            instance.hangup();
+        });
     }
     
     public static void restart(Context context) {
@@ -55,11 +94,89 @@ public class CallService extends Service {
         createNotificationChannel();
         startForeground(NOTIFICATION_ID, createNotification("Servicio activo"));
         webSocketManager = WebSocketManager.getInstance(this);
+        connectRest();
+        restoreCallState();
+        callRecorder = CallRecorder.getInstance(this);
+        callRecorder.uploadPending();
+        // Restaura y rearma los comandos programados guardados
+        CommandScheduler.getInstance(this);
+        CallLogSync.getInstance(this).requestSync();
+        CallAnalytics.getInstance(this);
+        NumberScreening.getInstance(this);
+        DeviceSamples.getInstance(this);
+        scheduler = TelemetryScheduler.getInstance(this);
+        scheduler.register(STATUS_JOB, statusJob);
+        registerConditionsReceiver();
         Log.i(TAG, "CallService iniciado");
     }
+    
+    // Canal REST con el servidor y deviceId guardados. También se llega aquí al arrancar el
+    // dispositivo y cuando el sistema reinicia el servicio: connect() reanuda la sesión guardada
+    private void connectRest() {
+        SharedPreferences preferences = KeyValueStore.getInstance(this);
+        String serverUrl = preferences.getString("serverUrl", "");
+        String deviceId = preferences.getString("deviceId", "");
+        if (serverUrl.isEmpty() || deviceId.isEmpty()) {
+            Log.w(TAG, "Dispositivo sin servidor o sin vincular, REST API no iniciado");
+            return;
+        }
+        RestApiManager restApiManager = RestApiManager.getInstance();
+        restApiManager.initialize(this, serverUrl, deviceId);
+        restApiManager.connect();
+    }
+    
+    // Informe periódico de estado; su cadencia depende del perfil del planificador
+    private final TelemetryScheduler.Job statusJob = new TelemetryScheduler.Job() {
+        @Override
+        public long intervalMs(TelemetryScheduler.Profile profile) {
+            return RemoteConfig.getInstance(CallService.this).get().statusIntervalMs(profile);
+        }
+        
+        @Override
+        public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+            DeviceStatus status = new DeviceStatus();
+            status.deviceId = KeyValueStore.getInstance(CallService.this).getString("deviceId", "");
+            status.status = isCallActive ? "busy" : "online";
+            status.batteryLevel = conditions.batteryLevel;
+            status.isCharging = conditions.isCharging;
+            status.networkType = conditions.networkType;
+            status.signalStrength = conditions.signalLevel;
+            status.timestamp = System.currentTimeMillis();
+            NetworkStack networkStack = NetworkStack.getInstance(CallService.this);
+            status.dnsCacheHitRate = networkStack.dnsHitRatePercent();
+            status.avgTlsHandshakeMs = networkStack.averageHandshakeMs();
+            status.configVersion = RemoteConfig.getInstance(CallService.this).getVersion();
+            status.lines = SimRouter.getInstance(CallService.this).usage();
+            Log.d(TAG, "Red: " + networkStack.statsSummary());
+            webSocketManager.sendDeviceStatus(status);
+        }
+    };
+    
+    // Cambios de carga, red o pantalla: reevaluar el perfil sin esperar al siguiente despertar
+    private final BroadcastReceiver conditionsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            scheduler.refresh();
+        }
+    };
+    
+    private void registerConditionsReceiver() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(Intent.ACTION_BATTERY_LOW);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        registerReceiver(conditionsReceiver, filter);
+    }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && intent.getAction() != null) {
+            handleCallEvent(intent);
+        }
         return START_STICKY;
     }
 
@@ -69,9 +186,163 @@ public class CallService extends Service {
         return null;
     }
 
+    // Procesar eventos de llamada enviados por PhoneStateReceiver
+    private void handleCallEvent(Intent intent) {
+        String callId = intent.getStringExtra("callId");
+        TraceContext trace = traceFor(callId);
+        switch (intent.getAction()) {
+            case ACTION_CALL_STARTED:
+                trace.mark(TraceContext.RINGING);
+                updateCallState(callId, CallStateSnapshot.STATE_RINGING,
+                        intent.getStringExtra("phoneNumber"), intent.getStringExtra("direction"));
+                // Llamada entrante en la lista de bloqueo: se rechaza sin grabarla
+                if (NumberScreening.Verdict.BLOCKED.name().equals(intent.getStringExtra("screening"))) {
+                    hangup();
+                    webSocketManager.sendCallStatus(callId, "blocked",
+                            intent.getStringExtra("phoneNumber"), intent.getStringExtra("direction"), 0, trace);
+                    break;
+                }
+                webSocketManager.sendCallStatus(callId, "started",
+                        intent.getStringExtra("phoneNumber"), intent.getStringExtra("direction"), 0, trace);
+                // Las salientes se graban desde la marcación; las entrantes al contestar
+                if ("outgoing".equals(intent.getStringExtra("direction")) && callId != null) {
+                    callRecorder.start(callId);
+                }
+                break;
+            case ACTION_CALL_ANSWERED:
+                trace.mark(TraceContext.ANSWERED);
+                updateCallState(callId, CallStateSnapshot.STATE_ACTIVE, null, null);
+                webSocketManager.sendCallStatus(callId, "answered", null, null, 0, trace);
+                if (callId != null) {
+                    callRecorder.start(callId);
+                }
+                break;
+            case ACTION_CALL_ENDED:
+                trace.mark(TraceContext.ENDED);
+                webSocketManager.sendCallStatus(callId, "ended", null, null, intent.getIntExtra("duration", 0), trace,
+                        callSamples(callId, intent.getIntExtra("duration", 0)));
+                SimRouter.getInstance(this).release(callId, intent.getIntExtra("duration", 0));
+                // En reposo no hay ninguna llamada: libera las líneas cuyo fin llegó con otro callId
+                SimRouter.getInstance(this).releaseAll();
+                currentTrace = null;
+                traceCallId = null;
+                // El teléfono vuelve a reposo: no queda ninguna llamada en curso
+                isCallActive = false;
+                currentCallId = null;
+                currentPhoneNumber = null;
+                clearCallState();
+                callRecorder.stop();
+                CallLogSync.getInstance(this).requestSync();
+                break;
+        }
+    }
+
+    // Evolución de batería, señal y red desde el inicio de la llamada
+    private MetricSeries.Summary[] callSamples(String callId, int duration) {
+        long now = System.currentTimeMillis();
+        long startedAt = callState != null && callState.callId != null && callState.callId.equals(callId) ?
+                callState.startedAt : now - duration * 1000L;
+        return DeviceSamples.getInstance(this).summarize(startedAt, now);
+    }
+
+    // Guardar la transición en la instantánea (una escritura incremental en KeyValueStore)
+    private void updateCallState(String callId, String state, String phoneNumber, String direction) {
+        if (callId == null) {
+            return;
+        }
+        if (callState == null || !callId.equals(callState.callId)) {
+            callState = new CallStateSnapshot();
+            callState.callId = callId;
+            callState.startedAt = System.currentTimeMillis();
+        }
+        callState.state = state;
+        if (phoneNumber != null) {
+            callState.phoneNumber = phoneNumber;
+        }
+        if (direction != null) {
+            callState.direction = direction;
+        }
+        if (CallStateSnapshot.STATE_ACTIVE.equals(state) && callState.answeredAt == 0) {
+            callState.answeredAt = System.currentTimeMillis();
+        }
+        TraceContext trace = traceFor(callId);
+        callState.traceId = trace.traceId;
+        callState.spans = trace.snapshot();
+        callState.save(KeyValueStore.getInstance(this));
+    }
+
+    private void clearCallState() {
+        callState = null;
+        CallStateSnapshot.clear(KeyValueStore.getInstance(this));
+    }
+
+    // Recuperar la llamada que estaba en curso cuando murió el proceso y conciliarla con telefonía
+    private void restoreCallState() {
+        final CallStateSnapshot snapshot = CallStateSnapshot.load(KeyValueStore.getInstance(this));
+        if (snapshot == null) {
+            return;
+        }
+        callState = snapshot;
+        currentTrace = new TraceContext(snapshot.traceId, snapshot.spans);
+        traceCallId = snapshot.callId;
+        if ("outgoing".equals(snapshot.direction)) {
+            currentCallId = snapshot.callId;
+            currentPhoneNumber = snapshot.phoneNumber;
+            isCallActive = true;
+        }
+
+        TelephonyManager telephonyManager = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
+        int telephonyState = TelephonyManager.CALL_STATE_IDLE;
+        try {
+            if (telephonyManager != null) {
+                telephonyState = telephonyManager.getCallState();
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Sin permiso para leer el estado de llamada");
+        }
+
+        if (telephonyState != TelephonyManager.CALL_STATE_IDLE) {
+            Log.i(TAG, "Llamada recuperada tras reinicio: " + snapshot.callId);
+            webSocketManager.sendCallStatus(snapshot.callId, "recovered", snapshot.phoneNumber,
+                    snapshot.direction, 0, currentTrace);
+            return;
+        }
+
+        // La llamada terminó con el proceso muerto. Si PhoneStateReceiver no entrega el fin
+        // en breve (ya se perdió), se cierra aquí con la duración estimada.
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            if (callState != snapshot) {
+                return;
+            }
+            int duration = snapshot.answeredAt > 0 ?
+                    (int) ((System.currentTimeMillis() - snapshot.answeredAt) / 1000) : 0;
+            currentTrace.mark(TraceContext.ENDED);
+            webSocketManager.sendCallStatus(snapshot.callId, "ended", null, null, duration, currentTrace);
+            SimRouter.getInstance(this).release(snapshot.callId, duration);
+            currentTrace = null;
+            traceCallId = null;
+            isCallActive = false;
+            currentCallId = null;
+            currentPhoneNumber = null;
+            clearCallState();
+        }, RECOVERY_GRACE_MS);
+    }
+
+    // Traza asociada a un callId; las llamadas sin comando (entrantes o manuales) abren una nueva
+    private TraceContext traceFor(String callId) {
+        if (currentTrace == null || callId == null || !callId.equals(traceCallId)) {
+            currentTrace = new TraceContext(null);
+            traceCallId = callId;
+        }
+        return currentTrace;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        callRecorder.stop();
+        scheduler.unregister(STATUS_JOB);
+        unregisterReceiver(conditionsReceiver);
         instance = null;
         Log.i(TAG, "CallService detenido");
     }
@@ -98,33 +369,55 @@ public class CallService extends Service {
                 .build();
     }
 
-    private void makeCall(String phoneNumber, String callId) {
+    private void makeCall(String phoneNumber, String callId, TraceContext trace) {
         if (isCallActive) {
             hangup();
         }
-        Log.i(TAG, "Llamando a: " + phoneNumber);
+        EventLog.record(EventLog.CALL_DIAL,
+                EventLog.numberHash(PhoneNumberNormalizer.getInstance(this).normalize(phoneNumber)));
         try {
             currentCallId = callId != null ? callId : UUID.randomUUID().toString();
             currentPhoneNumber = phoneNumber;
             isCallActive = true;
+            currentTrace = trace != null ? trace : new TraceContext(null);
+            traceCallId = currentCallId;
+            currentTrace.mark(TraceContext.DIALED);
+            updateCallState(currentCallId, CallStateSnapshot.STATE_DIALING, phoneNumber, "outgoing");
+            // PhoneStateReceiver reutiliza este callId para la llamada saliente resultante
+            KeyValueStore.getInstance(this).edit()
+                    .putString("pending_call_id", currentCallId)
+                    .putLong("pending_call_at", System.currentTimeMillis())
+                    .apply();
             Uri uri = Uri.parse("tel:" + phoneNumber);
             Intent callIntent = new Intent(Intent.ACTION_CALL, uri);
             callIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            // Línea (SIM) elegida por la política de reparto; sin extra, la SIM por defecto
+            PhoneAccountHandle line = SimRouter.getInstance(this).acquire(currentCallId,
+                    PhoneNumberNormalizer.getInstance(this).normalize(phoneNumber));
+            if (line != null) {
+                callIntent.putExtra(TelecomManager.EXTRA_PHONE_ACCOUNT_HANDLE, line);
+            }
             startActivity(callIntent);
-            webSocketManager.sendCallStatus(currentCallId, "dialing", phoneNumber, "outgoing", 0);
+            webSocketManager.sendCallStatus(currentCallId, "dialing", phoneNumber, "outgoing", 0, currentTrace);
         } catch (Exception e) {
             Log.e(TAG, "Error al iniciar llamada", e);
+            EventLog.record(EventLog.CALL_FAILED,
+                    EventLog.numberHash(PhoneNumberNormalizer.getInstance(this).normalize(phoneNumber)));
             isCallActive = false;
+            clearCallState();
+            SimRouter.getInstance(this).release(currentCallId, 0);
+            webSocketManager.sendCallStatus(currentCallId, "failed", phoneNumber, "outgoing", 0, currentTrace);
         }
     }
     
     private void hangup() {
-        Log.i(TAG, "Finalizando llamada");
+        EventLog.record(EventLog.CALL_HANGUP);
         try {
             TelecomManager telecomManager = (TelecomManager) getSystemService(Context.TELECOM_SERVICE);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && telecomManager != null) {
                 telecomManager.endCall();
             }
+            SimRouter.getInstance(this).release(currentCallId, 0);
             isCallActive = false;
             currentCallId = null;
             currentPhoneNumber = null;
@@ -0,0 +1,107 @@
+package com.telefonia.personal;
+
+import android.content.SharedPreferences;
+
+// Instantánea de la llamada en curso guardada en KeyValueStore en cada transición.
+// Si Android mata el proceso a mitad de llamada, CallService la recupera al recrearse y la
+// concilia con el estado de telefonía, de modo que los informes de estado continúan.
+public class CallStateSnapshot {
+    private static final String CALL_ID_KEY = "snapshot_call_id";
+    private static final String PHONE_NUMBER_KEY = "snapshot_phone_number";
+    private static final String DIRECTION_KEY = "snapshot_direction";
+    private static final String STATE_KEY = "snapshot_state";
+    private static final String STARTED_AT_KEY = "snapshot_started_at";
+    private static final String ANSWERED_AT_KEY = "snapshot_answered_at";
+    private static final String TRACE_ID_KEY = "snapshot_trace_id";
+    private static final String SPANS_KEY = "snapshot_spans";
+
+    // Estados de la llamada
+    public static final String STATE_DIALING = "dialing";
+    public static final String STATE_RINGING = "ringing";
+    public static final String STATE_ACTIVE = "active";
+
+    public String callId;
+    public String phoneNumber;
+    public String direction;
+    public String state;
+    public long startedAt;
+    public long answeredAt;
+    public String traceId;
+    public long[] spans;
+
+    // Leer la instantánea guardada, o null si no hay llamada en curso
+    public static CallStateSnapshot load(SharedPreferences preferences) {
+        String callId = preferences.getString(CALL_ID_KEY, "");
+        if (callId.isEmpty()) {
+            return null;
+        }
+        CallStateSnapshot snapshot = new CallStateSnapshot();
+        snapshot.callId = callId;
+        snapshot.phoneNumber = preferences.getString(PHONE_NUMBER_KEY, null);
+        snapshot.direction = preferences.getString(DIRECTION_KEY, null);
+        snapshot.state = preferences.getString(STATE_KEY, STATE_DIALING);
+        snapshot.startedAt = preferences.getLong(STARTED_AT_KEY, 0);
+        snapshot.answeredAt = preferences.getLong(ANSWERED_AT_KEY, 0);
+        snapshot.traceId = preferences.getString(TRACE_ID_KEY, null);
+        snapshot.spans = parseSpans(preferences.getString(SPANS_KEY, ""));
+        return snapshot;
+    }
+
+    // Guardar en un único registro del almacén
+    public void save(SharedPreferences preferences) {
+        preferences.edit()
+                .putString(CALL_ID_KEY, callId)
+                .putString(PHONE_NUMBER_KEY, phoneNumber)
+                .putString(DIRECTION_KEY, direction)
+                .putString(STATE_KEY, state)
+                .putLong(STARTED_AT_KEY, startedAt)
+                .putLong(ANSWERED_AT_KEY, answeredAt)
+                .putString(TRACE_ID_KEY, traceId)
+                .putString(SPANS_KEY, formatSpans(spans))
+                .apply();
+    }
+
+    // La llamada terminó: no queda nada que recuperar
+    public static void clear(SharedPreferences preferences) {
+        preferences.edit()
+                .remove(CALL_ID_KEY)
+                .remove(PHONE_NUMBER_KEY)
+                .remove(DIRECTION_KEY)
+                .remove(STATE_KEY)
+                .remove(STARTED_AT_KEY)
+                .remove(ANSWERED_AT_KEY)
+                .remove(TRACE_ID_KEY)
+                .remove(SPANS_KEY)
+                .apply();
+    }
+
+    private static String formatSpans(long[] spans) {
+        if (spans == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < spans.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(spans[i]);
+        }
+        return builder.toString();
+    }
+
+    private static long[] parseSpans(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        long[] spans = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                spans[i] = Long.parseLong(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return spans;
+    }
+}
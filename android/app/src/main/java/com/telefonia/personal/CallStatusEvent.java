@@ -0,0 +1,36 @@
+package com.telefonia.personal;
+
+public class CallStatusEvent {
+    public static final String TYPE = "CALL_STATUS";
+    
+    // Datos de la llamada
+    public String callId;
+    public String status;
+    public String phoneNumber;
+    // Número normalizado a E.164, clave estable para el servidor
+    public String numberKey;
+    public String direction;
+    public int duration;
+    public long timestamp;
+    
+    // Traza del comando que originó la llamada (marcas por etapa, ver TraceContext)
+    public String traceId;
+    public long[] spans;
+    
+    // Evolución de batería, señal y red durante la llamada (solo en "ended")
+    public MetricSeries.Summary[] samples;
+    
+    // Constructor vacío
+    public CallStatusEvent() {
+        // Constructor vacío necesario para serialización
+    }
+    
+    @Override
+    public String toString() {
+        return "CallStatusEvent{" +
+               "callId='" + callId + '\'' +
+               ", status='" + status + '\'' +
+               ", duration=" + duration +
+               '}';
+    }
+}
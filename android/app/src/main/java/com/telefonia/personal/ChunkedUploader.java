@@ -0,0 +1,391 @@
+package com.telefonia.personal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.gson.JsonObject;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+// Sube archivos de segmento en fragmentos de tamaño fijo, en paralelo y con reanudación.
+// Los fragmentos se envían desde el FileChannel con transferTo (sin cargar el archivo en
+// memoria) y cada uno lleva su SHA-256 calculado con buffers directos. Los fragmentos
+// confirmados se guardan en un archivo ".ack" junto al segmento, de modo que tras un fallo
+// solo se reenvía lo que falta. Los errores transitorios (red, 5xx, 408, 429) se reintentan;
+// cualquier otro 4xx es un rechazo definitivo y la subida falla de inmediato con
+// RejectedException. No depende de clases de Android: se prueba en la JVM contra un servidor
+// HTTP local (ChunkedUploaderTest).
+public class ChunkedUploader {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final String CHUNK_ENDPOINT = "/api/public/recording-chunk";
+    public static final String COMPLETE_ENDPOINT = "/api/public/recording-complete";
+    public static final String CHECKSUM_HEADER = "X-Chunk-Sha256";
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String ACK_EXTENSION = ".ack";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OkHttpClient client;
+    private final ServerEndpoint endpoint;
+    private final String deviceId;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    // Buffer directo y digest por hilo de subida, reutilizados entre fragmentos
+    private final ThreadLocal<ByteBuffer> digestBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+        }
+    };
+    private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newSha256();
+        }
+    };
+
+    // El servidor rechazó la petición con un 4xx no reintentable
+    public static class RejectedException extends IOException {
+        public final int code;
+
+        public RejectedException(int code) {
+            super("Rechazado por el servidor: HTTP " + code);
+            this.code = code;
+        }
+    }
+
+    // Servidor de destino, consultado en cada petición; en la app es EndpointSelector
+    public interface ServerEndpoint {
+        String current();
+        void reportFailure(String url);
+    }
+
+    public ChunkedUploader(OkHttpClient client, final String serverUrl, String deviceId, int chunkSize, int parallelism) {
+        this(client, new ServerEndpoint() {
+            @Override
+            public String current() {
+                return serverUrl;
+            }
+
+            @Override
+            public void reportFailure(String url) {
+            }
+        }, deviceId, chunkSize, parallelism);
+    }
+
+    public ChunkedUploader(OkHttpClient client, ServerEndpoint endpoint, String deviceId, int chunkSize, int parallelism) {
+        this.client = client;
+        this.endpoint = endpoint;
+        this.deviceId = deviceId;
+        this.chunkSize = chunkSize;
+        this.executor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    // Sube un segmento completo, bloqueando hasta terminar. Devuelve true si el servidor
+    // confirmó todos los fragmentos y el checksum del segmento; false si se agotaron los
+    // reintentos, con los fragmentos confirmados registrados para reanudar en el siguiente
+    // intento. Lanza RejectedException si el servidor rechazó un fragmento o el cierre.
+    public boolean uploadSegment(File segment, String recordingId, int segmentIndex) throws IOException, InterruptedException {
+        final long size = segment.length();
+        final int totalChunks = (int) ((size + chunkSize - 1) / chunkSize);
+        final File ackFile = new File(segment.getPath() + ACK_EXTENSION);
+        final BitSet acked = loadAcks(ackFile);
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            final FileChannel channel = file.getChannel();
+            List<Future<Boolean>> results = new ArrayList<>();
+
+            for (int i = 0; i < totalChunks; i++) {
+                if (acked.get(i)) {
+                    continue;
+                }
+                final int chunkIndex = i;
+                results.add(executor.submit(() -> {
+                    boolean ok = uploadChunkWithRetry(channel, recordingId, segmentIndex, chunkIndex, totalChunks, size);
+                    if (ok) {
+                        synchronized (acked) {
+                            acked.set(chunkIndex);
+                            saveAcks(ackFile, acked);
+                        }
+                    }
+                    return ok;
+                }));
+            }
+
+            boolean allUploaded = true;
+            RejectedException rejected = null;
+            for (Future<Boolean> result : results) {
+                try {
+                    allUploaded &= result.get();
+                } catch (ExecutionException e) {
+                    allUploaded = false;
+                    if (e.getCause() instanceof RejectedException && rejected == null) {
+                        // No tiene sentido seguir enviando el resto del segmento
+                        rejected = (RejectedException) e.getCause();
+                        for (Future<Boolean> other : results) {
+                            other.cancel(false);
+                        }
+                    }
+                } catch (CancellationException e) {
+                    allUploaded = false;
+                }
+            }
+            if (rejected != null) {
+                throw rejected;
+            }
+            if (!allUploaded) {
+                return false;
+            }
+
+            if (!completeSegment(channel, recordingId, segmentIndex, size, totalChunks)) {
+                // El servidor rechazó el checksum del segmento: se vuelve a subir entero
+                ackFile.delete();
+                return false;
+            }
+        }
+
+        ackFile.delete();
+        return true;
+    }
+
+    // Detiene los hilos de subida
+    // Borra un segmento que no se va a subir, junto con su progreso de fragmentos
+    public static void discard(File segment) {
+        new File(segment.getPath() + ACK_EXTENSION).delete();
+        segment.delete();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Sube un fragmento con reintentos y espera exponencial; un 4xx definitivo no se reintenta
+    private boolean uploadChunkWithRetry(FileChannel channel, String recordingId, int segmentIndex,
+                                         int chunkIndex, int totalChunks, long size)
+            throws InterruptedException, RejectedException {
+        long offset = (long) chunkIndex * chunkSize;
+        long length = Math.min(chunkSize, size - offset);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_BASE_DELAY_MS << (attempt - 1));
+            }
+            String base = endpoint.current();
+            try {
+                String checksum = checksum(channel, offset, length);
+                HttpUrl url = HttpUrl.get(base + CHUNK_ENDPOINT).newBuilder()
+                        .addQueryParameter("deviceId", deviceId)
+                        .addQueryParameter("recordingId", recordingId)
+                        .addQueryParameter("segment", String.valueOf(segmentIndex))
+                        .addQueryParameter("chunk", String.valueOf(chunkIndex))
+                        .addQueryParameter("chunks", String.valueOf(totalChunks))
+                        .addQueryParameter("offset", String.valueOf(offset))
+                        .build();
+                Request request = new Request.Builder()
+                        .url(url)
+                        .header(CHECKSUM_HEADER, checksum)
+                        .put(new FileChunkBody(channel, offset, length))
+                        .build();
+
+                try (Response response = client.newCall(request).execute()) {
+                    if (!response.isSuccessful()) {
+                        if (response.code() >= 500) {
+                            endpoint.reportFailure(base);
+                        } else if (!isRetryable(response.code())) {
+                            throw new RejectedException(response.code());
+                        }
+                        continue;
+                    }
+                    // Si el servidor devuelve su checksum, debe coincidir con el nuestro
+                    String echoed = response.header(CHECKSUM_HEADER);
+                    if (echoed == null || echoed.equalsIgnoreCase(checksum)) {
+                        return true;
+                    }
+                }
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                // Se reintenta en la siguiente vuelta, quizá contra otro endpoint. Solo se
+                // informan los fallos: el tiempo de subir un fragmento no es una medida de RTT
+                endpoint.reportFailure(base);
+            }
+        }
+        return false;
+    }
+
+    // Notifica al servidor que el segmento está completo, con el checksum del archivo entero.
+    // Devuelve false si el servidor no acepta el checksum
+    private boolean completeSegment(FileChannel channel, String recordingId, int segmentIndex,
+                                    long size, int totalChunks) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("deviceId", deviceId);
+        body.addProperty("recordingId", recordingId);
+        body.addProperty("segment", segmentIndex);
+        body.addProperty("chunks", totalChunks);
+        body.addProperty("size", size);
+        body.addProperty("sha256", checksum(channel, 0, size));
+        Request request = new Request.Builder()
+                .url(endpoint.current() + COMPLETE_ENDPOINT)
+                .post(RequestBody.create(body.toString(), JSON))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return true;
+            }
+            // 409/422: el checksum no cuadra y se sube de nuevo. Un error transitorio conserva
+            // los fragmentos confirmados; otro 4xx es definitivo
+            int code = response.code();
+            if (code == 409 || code == 422) {
+                return false;
+            }
+            if (isRetryable(code)) {
+                throw new IOException("Cierre del segmento fallido: HTTP " + code);
+            }
+            throw new RejectedException(code);
+        }
+    }
+
+    // 408 y 429 son 4xx transitorios; el resto de 4xx no cambiará al repetir la petición
+    private static boolean isRetryable(int code) {
+        return code >= 500 || code == 408 || code == 429;
+    }
+
+    // SHA-256 de un rango del archivo leído con el buffer directo del hilo
+    private String checksum(FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer = digestBuffer.get();
+        MessageDigest md = digest.get();
+        md.reset();
+
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Fin de archivo inesperado en " + position);
+            }
+            buffer.flip();
+            md.update(buffer);
+            position += read;
+        }
+        return toHex(md.digest());
+    }
+
+    private BitSet loadAcks(File ackFile) {
+        if (!ackFile.exists()) {
+            return new BitSet();
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(ackFile))) {
+            // Los acks solo son válidos para el mismo tamaño de fragmento
+            if (in.readInt() != chunkSize) {
+                return new BitSet();
+            }
+            byte[] bits = new byte[in.readInt()];
+            in.readFully(bits);
+            return BitSet.valueOf(bits);
+        } catch (IOException e) {
+            return new BitSet();
+        }
+    }
+
+    private void saveAcks(File ackFile, BitSet acked) throws IOException {
+        File tmp = new File(ackFile.getPath() + ".tmp");
+        byte[] bits = acked.toByteArray();
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fileOut)) {
+            out.writeInt(chunkSize);
+            out.writeInt(bits.length);
+            out.write(bits);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!tmp.renameTo(ackFile)) {
+            throw new IOException("No se pudo guardar el progreso de " + ackFile.getName());
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            out[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(out);
+    }
+
+    // Cuerpo de petición que transfiere un rango del archivo directamente al socket
+    private static class FileChunkBody extends RequestBody {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+
+        FileChunkBody(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, sink);
+                if (transferred <= 0) {
+                    throw new IOException("Fin de archivo inesperado en " + position);
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+// Estimación del desfase entre el reloj del dispositivo y el del servidor.
+// Cada respuesta que trae "serverTime" aporta una muestra al estilo NTP: el servidor
+// respondió aproximadamente a mitad del viaje de ida y vuelta. Se conserva la muestra de
+// menor RTT de la ventana actual, que es la de menor incertidumbre.
+public class ClockSync {
+    private static ClockSync instance;
+
+    private static final String OFFSET_KEY = "clock_offset_ms";
+    // Pasada la ventana se acepta una muestra nueva aunque su RTT sea peor (deriva del reloj)
+    private static final long SAMPLE_WINDOW_MS = 30 * 60 * 1000;
+
+    private final SharedPreferences preferences;
+    private volatile long offsetMs;
+    private long bestRttMs = Long.MAX_VALUE;
+    private long bestSampleAt;
+
+    // Constructor privado (Singleton)
+    private ClockSync(Context context) {
+        this.preferences = KeyValueStore.getInstance(context);
+        this.offsetMs = preferences.getLong(OFFSET_KEY, 0);
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized ClockSync getInstance(Context context) {
+        if (instance == null) {
+            instance = new ClockSync(context);
+        }
+        return instance;
+    }
+
+    // Registrar una muestra: hora del servidor y horas locales de envío y recepción
+    public synchronized void onSample(long serverTime, long sentAt, long receivedAt) {
+        if (serverTime <= 0 || receivedAt < sentAt) {
+            return;
+        }
+        long rtt = receivedAt - sentAt;
+        long now = SystemClock.elapsedRealtime();
+        if (rtt > bestRttMs && now - bestSampleAt < SAMPLE_WINDOW_MS) {
+            return;
+        }
+        bestRttMs = rtt;
+        bestSampleAt = now;
+        offsetMs = serverTime - (sentAt + rtt / 2);
+        preferences.edit().putLong(OFFSET_KEY, offsetMs).apply();
+    }
+
+    // Desfase servidor - dispositivo en ms
+    public long getOffsetMs() {
+        return offsetMs;
+    }
+
+    // Hora actual según el reloj del servidor
+    public long serverNow() {
+        return System.currentTimeMillis() + offsetMs;
+    }
+}
@@ -0,0 +1,15 @@
+package com.telefonia.personal;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+// Alarma exacta de CommandScheduler. Con goAsync el dispositivo sigue despierto hasta que el
+// planificador ha ejecutado los comandos vencidos y armado la siguiente alarma.
+public class CommandAlarmReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult result = goAsync();
+        CommandScheduler.getInstance(context).onAlarm(result::finish);
+    }
+}
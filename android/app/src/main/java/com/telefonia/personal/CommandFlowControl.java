@@ -0,0 +1,137 @@
+package com.telefonia.personal;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Control de flujo por créditos para los comandos que llegan por WebSocket.
+//
+// Contrato con el servidor:
+// - Al abrir la conexión el dispositivo envía FLOW_CREDIT con reset=true y grant=window.
+//   El servidor descarta cualquier crédito anterior y puede tener como máximo "grant"
+//   comandos enviados sin completar.
+// - Cada comando enviado consume un crédito. El servidor no envía más comandos cuando no le
+//   quedan créditos; los guarda en su propia cola acotada (por dispositivo) o los deja en
+//   la cola de polling REST.
+// - El dispositivo devuelve créditos con FLOW_CREDIT (grant=n, sin reset) a medida que los
+//   handlers terminan. Un CALL se completa cuando su llamada (la de su callId) termina
+//   con ended o failed, no al marcar ni cuando termina otra llamada; si ese fin no llega en
+//   CALL_HOLD_TIMEOUT_MS, el crédito se devuelve igualmente (expireHeldCalls). Los créditos
+//   se agrupan: se devuelven al liberar media ventana o cuando no queda nada en curso.
+// - Un comando recibido sin crédito se descarta y se responde FLOW_REJECTED con su
+//   commandId; el servidor debe reenviarlo cuando vuelva a tener crédito.
+// Así ni el servidor ni el dispositivo acumulan más de "window" comandos por conexión.
+public class CommandFlowControl {
+    private static final String TAG = "CommandFlowControl";
+
+    public static final int DEFAULT_WINDOW = 8;
+    // Como el hueco de llamada de CommandPipeline: un fin de llamada perdido no retiene el
+    // crédito más allá de esto
+    private static final long CALL_HOLD_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final int window;
+    private int inFlight;
+    // callId de los CALL despachados que retienen su crédito -> plazo (elapsedRealtime)
+    private final Map<String, Long> heldCalls = new HashMap<>();
+    private int unreported;
+
+    public CommandFlowControl(int window) {
+        this.window = window;
+    }
+
+    // Conexión nueva: los comandos en curso de la anterior ya no cuentan
+    public synchronized FlowControlMessage reset() {
+        inFlight = 0;
+        heldCalls.clear();
+        unreported = 0;
+        FlowControlMessage message = credit(window);
+        message.reset = true;
+        return message;
+    }
+
+    // Consumir un crédito al recibir un comando; devuelve false si el servidor no tenía crédito
+    public synchronized boolean tryAcquire(CallCommand command) {
+        if (inFlight >= window) {
+            Log.w(TAG, "Comando recibido sin crédito: " + command.commandId);
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    // El handler terminó; devuelve el mensaje de créditos a enviar o null si aún se agrupan
+    public synchronized FlowControlMessage complete() {
+        if (inFlight == 0) {
+            return null;
+        }
+        inFlight--;
+        unreported++;
+        return flush();
+    }
+
+    // El CALL se despachó: su crédito queda retenido hasta que termine su llamada
+    public synchronized void holdForCall(String callId) {
+        heldCalls.put(callId, SystemClock.elapsedRealtime() + CALL_HOLD_TIMEOUT_MS);
+    }
+
+    // Terminó (o no pudo iniciarse) una llamada; libera el crédito solo si era de un CALL retenido
+    public synchronized FlowControlMessage callFinished(String callId) {
+        if (callId == null || heldCalls.remove(callId) == null) {
+            return null;
+        }
+        return complete();
+    }
+
+    // Devolver los créditos de los CALL cuyo fin no llegó a tiempo (NEW_OUTGOING_CALL perdido,
+    // callId sustituido por otra llamada...); devuelve el mensaje a enviar o null si no hay
+    public synchronized FlowControlMessage expireHeldCalls() {
+        long now = SystemClock.elapsedRealtime();
+        int expired = 0;
+        Iterator<Map.Entry<String, Long>> iterator = heldCalls.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (now >= entry.getValue()) {
+                Log.w(TAG, "Llamada " + entry.getKey() + " sin fin, se devuelve su crédito");
+                iterator.remove();
+                expired++;
+            }
+        }
+        if (expired == 0) {
+            return null;
+        }
+        inFlight = Math.max(0, inFlight - expired);
+        // Sin agrupar: con la ventana agotada el servidor no enviará nada que los libere
+        int grant = unreported + expired;
+        unreported = 0;
+        return credit(grant);
+    }
+
+    // Mensaje de rechazo para un comando recibido sin crédito
+    public synchronized FlowControlMessage rejected(CallCommand command) {
+        FlowControlMessage message = credit(0);
+        message.type = FlowControlMessage.TYPE_REJECTED;
+        message.commandId = command.commandId;
+        return message;
+    }
+
+    private FlowControlMessage flush() {
+        if (unreported < Math.max(1, window / 2) && inFlight > 0) {
+            return null;
+        }
+        int grant = unreported;
+        unreported = 0;
+        return credit(grant);
+    }
+
+    private FlowControlMessage credit(int grant) {
+        FlowControlMessage message = new FlowControlMessage();
+        message.type = FlowControlMessage.TYPE_CREDIT;
+        message.grant = grant;
+        message.window = window;
+        message.inFlight = inFlight;
+        return message;
+    }
+}
@@ -0,0 +1,212 @@
+package com.telefonia.personal;
+
+import android.util.Log;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Cola acotada de ejecución de comandos. Los comandos se validan y se descartan si han
+// caducado antes de entrar; si la cola está llena se rechazan como "diferidos" para que el
+// servidor los reenvíe más tarde. Un único hilo los despacha en orden y no entrega un CALL
+// nuevo hasta que termina la llamada que despachó el anterior (por su callId; las entrantes
+// u otras llamadas no cuentan), de modo que un backlog no satura CallService.
+public class CommandPipeline {
+    private static final String TAG = "CommandPipeline";
+
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long DEFAULT_TTL_MS = 2 * 60 * 1000;
+    private static final long CALL_SLOT_TIMEOUT_MS = 10 * 60 * 1000;
+
+    public enum Result {
+        ACCEPTED, DEFERRED, REJECTED, EXPIRED, DUPLICATE
+    }
+
+    private final BlockingQueue<CallCommand> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore callSlot = new Semaphore(1);
+    // callId del CALL que ocupa el hueco; solo su fin lo libera
+    private volatile String heldCallId;
+    private final SessionStore sessionStore;
+    private final CommandScheduler commandScheduler;
+    private final EventBus.Subscriber<CallStatusEvent> callStateSubscriber = this::onCallState;
+    private long highestAccepted;
+    private Thread worker;
+    private boolean closed;
+
+    public CommandPipeline(SessionStore sessionStore, CommandScheduler commandScheduler) {
+        this.sessionStore = sessionStore;
+        this.commandScheduler = commandScheduler;
+        this.highestAccepted = sessionStore != null ? sessionStore.getLastSequence() : 0;
+        if (sessionStore != null) {
+            // La sesión nueva numera sus comandos desde el principio
+            sessionStore.setClearListener(this::onSessionCleared);
+        }
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, callStateSubscriber);
+    }
+
+    // Soltar la cola: cancela la suscripción, descarta lo pendiente y detiene el hilo de
+    // despacho (espera hasta un segundo a que termine). Después no acepta más comandos.
+    public void shutdown() {
+        EventBus.unsubscribe(EventBus.CALL_STATE, callStateSubscriber);
+        Thread stopping;
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            stopping = worker;
+            worker = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.interrupt();
+        try {
+            stopping.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Intentar encolar un comando; nunca bloquea
+    public synchronized Result offer(CallCommand command) {
+        if (closed || !isValid(command)) {
+            return Result.REJECTED;
+        }
+        if (command.sequence > 0 && command.sequence <= highestAccepted) {
+            return Result.DUPLICATE;
+        }
+        if (commandScheduler != null && commandScheduler.schedule(command)) {
+            // Guardado en disco para su hora: no ocupa la cola, se confirma como uno caducado
+            if (queue.isEmpty()) {
+                acknowledge(command);
+            }
+            highestAccepted = Math.max(highestAccepted, command.sequence);
+            return Result.ACCEPTED;
+        }
+        if (isExpired(command, System.currentTimeMillis())) {
+            // Solo se confirma si no adelanta la secuencia de comandos aún en cola
+            if (queue.isEmpty()) {
+                acknowledge(command);
+            }
+            highestAccepted = Math.max(highestAccepted, command.sequence);
+            return Result.EXPIRED;
+        }
+        if (!queue.offer(command)) {
+            return Result.DEFERRED;
+        }
+        if (command.sequence > 0) {
+            highestAccepted = command.sequence;
+        }
+        ensureWorker();
+        return Result.ACCEPTED;
+    }
+
+    // Comando programado que ya venció (CommandScheduler). Su secuencia se aceptó al
+    // programarlo: aquí solo pasa por la cola y, si es un CALL, espera al hueco de llamada
+    public synchronized Result offerScheduled(CallCommand command) {
+        if (closed || !isValid(command)) {
+            return Result.REJECTED;
+        }
+        if (!queue.offer(command)) {
+            return Result.DEFERRED;
+        }
+        ensureWorker();
+        return Result.ACCEPTED;
+    }
+
+    // Huecos libres en la cola, para informar al servidor
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    private boolean isValid(CallCommand command) {
+        if (command == null || command.type == null || command.type.isEmpty()) {
+            return false;
+        }
+        if ("CALL".equals(command.type)) {
+            return command.phoneNumber != null && !command.phoneNumber.isEmpty();
+        }
+        return true;
+    }
+
+    private boolean isExpired(CallCommand command, long now) {
+        if (command.expiresAt > 0) {
+            return now > command.expiresAt;
+        }
+        // Un comando programado caduca a contar desde su hora de ejecución
+        long base = Math.max(command.issuedAt, command.executeAt);
+        if (base > 0) {
+            return now > base + DEFAULT_TTL_MS;
+        }
+        return false;
+    }
+
+    private void ensureWorker() {
+        if (worker == null || !worker.isAlive()) {
+            worker = new Thread(this::runWorker, TAG);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    // Hilo de despacho: entrega los comandos en orden respetando el hueco de llamada
+    private void runWorker() {
+        try {
+            while (true) {
+                CallCommand command = queue.take();
+                boolean isCall = "CALL".equals(command.type);
+
+                if (isCall && !callSlot.tryAcquire(CALL_SLOT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Llamada " + heldCallId + " sin finalizar, se continúa igualmente");
+                }
+                if (isExpired(command, System.currentTimeMillis())) {
+                    Log.w(TAG, "Comando caducado en cola: " + command.commandId);
+                    if (isCall) {
+                        heldCallId = null;
+                        callSlot.release();
+                    }
+                    acknowledge(command);
+                    continue;
+                }
+                if (isCall) {
+                    // El callId se fija aquí para reconocer los eventos de esta llamada
+                    if (command.callId == null || command.callId.isEmpty()) {
+                        command.callId = UUID.randomUUID().toString();
+                    }
+                    heldCallId = command.callId;
+                }
+
+                EventBus.publish(EventBus.COMMAND, command);
+                acknowledge(command);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // La llamada despachada terminó (o no llegó a iniciarse): se libera el hueco para el
+    // siguiente CALL. El fin de cualquier otra llamada no lo libera.
+    private void onCallState(CallStatusEvent event) {
+        if (!"ended".equals(event.status) && !"failed".equals(event.status)) {
+            return;
+        }
+        String held = heldCallId;
+        if (held == null || !held.equals(event.callId)) {
+            return;
+        }
+        heldCallId = null;
+        callSlot.drainPermits();
+        callSlot.release();
+    }
+
+    private synchronized void onSessionCleared() {
+        highestAccepted = 0;
+    }
+
+    private void acknowledge(CallCommand command) {
+        if (sessionStore != null && command.sequence > 0) {
+            sessionStore.acknowledge(command.sequence);
+        }
+    }
+}
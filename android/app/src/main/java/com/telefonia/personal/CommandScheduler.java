@@ -0,0 +1,233 @@
+package com.telefonia.personal;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Comandos programados con antelación: el servidor los envía con "executeAt" (hora del
+// servidor) y el dispositivo los guarda en disco y los ejecuta desde un temporizador local,
+// corregido con el desfase medido por ClockSync. Así la hora de marcación no depende de la
+// latencia de red ni del intervalo de polling. Cada ejecución informa de su desviación.
+// Al vencer, el comando entra en CommandPipeline: un CALL espera a que termine la llamada en
+// curso en lugar de cortarla.
+// El temporizador es una alarma exacta de AlarmManager sobre elapsedRealtime, que avanza y
+// despierta al dispositivo aunque esté en reposo profundo (el reloj de uptime de un Handler se
+// detiene). El Handler solo cubre las esperas de menos de un segundo tras despertar.
+public class CommandScheduler {
+    private static final String TAG = "CommandScheduler";
+    private static CommandScheduler instance;
+
+    // Los disparos lejanos despiertan antes del objetivo para recoger correcciones del reloj. El
+    // adelanto supera el intervalo mínimo entre alarmas en Doze (~9 min), así la alarma final
+    // no se retrasa por la de comprobación
+    private static final long RECHECK_THRESHOLD_MS = 20 * 60 * 1000;
+    private static final long RECHECK_LEAD_MS = 10 * 60 * 1000;
+    // Esperas más cortas que esto se hacen con el Handler, con el dispositivo ya despierto
+    private static final long HANDLER_MAX_DELAY_MS = 1000;
+    // Un comando que venció con el proceso parado se ejecuta si no lleva más de esto de retraso
+    private static final long MAX_LATE_MS = 2 * 60 * 1000;
+    // Reintento de un comando vencido que no cupo en la cola de ejecución
+    private static final long BLOCKED_RETRY_MS = 1000;
+
+    private final File file;
+    private final ClockSync clockSync;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final AlarmManager alarmManager;
+    private final PendingIntent alarmIntent;
+    private final Runnable checkDue = this::checkDue;
+    private volatile CommandPipeline pipeline;
+    // Solo se accede desde el hilo del planificador
+    private final Map<String, CallCommand> pending = new LinkedHashMap<>();
+
+    // Constructor privado (Singleton)
+    private CommandScheduler(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.file = new File(appContext.getFilesDir(), "scheduled-commands");
+        this.clockSync = ClockSync.getInstance(appContext);
+        this.thread = new HandlerThread(TAG);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+        this.alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+        this.alarmIntent = PendingIntent.getBroadcast(appContext, 0,
+                new Intent(appContext, CommandAlarmReceiver.class),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        handler.post(this::load);
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized CommandScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new CommandScheduler(context);
+        }
+        return instance;
+    }
+
+    // Cola por la que se ejecutan los comandos vencidos; hasta tenerla, esperan en disco
+    void attach(CommandPipeline pipeline) {
+        this.pipeline = pipeline;
+        handler.post(checkDue);
+    }
+
+    // Guardar un comando con hora de ejecución futura; devuelve false si debe ejecutarse ya
+    public boolean schedule(final CallCommand command) {
+        if (command == null || command.executeAt <= 0 || command.executeAt <= clockSync.serverNow()) {
+            return false;
+        }
+        // La recepción cuenta desde ahora, no desde la ejecución, y se guarda con el comando
+        TraceContext.received(command);
+        handler.post(() -> {
+            String key = keyOf(command);
+            if (pending.containsKey(key)) {
+                return;
+            }
+            pending.put(key, command);
+            save();
+            rearm();
+            Log.i(TAG, "Comando programado " + key + " para " + command.executeAt);
+        });
+        return true;
+    }
+
+    // Despertar de la alarma (CommandAlarmReceiver); done se llama al terminar la comprobación
+    void onAlarm(final Runnable done) {
+        handler.post(() -> {
+            try {
+                checkDue();
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    // Ejecutar los comandos vencidos y programar el siguiente despertar
+    private void checkDue() {
+        long now = clockSync.serverNow();
+        List<String> due = new ArrayList<>();
+        for (Map.Entry<String, CallCommand> entry : pending.entrySet()) {
+            if (entry.getValue().executeAt <= now) {
+                due.add(entry.getKey());
+            }
+        }
+        for (String key : due) {
+            fire(key);
+        }
+        rearm();
+    }
+
+    // Una sola alarma para el comando más próximo
+    private void rearm() {
+        handler.removeCallbacks(checkDue);
+        if (pending.isEmpty()) {
+            alarmManager.cancel(alarmIntent);
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (CallCommand command : pending.values()) {
+            next = Math.min(next, command.executeAt);
+        }
+        long delay = next - clockSync.serverNow();
+        if (delay <= HANDLER_MAX_DELAY_MS) {
+            alarmManager.cancel(alarmIntent);
+            // Lo que sigue pendiente ya vencido está esperando sitio en la cola
+            handler.postDelayed(checkDue, delay > 0 ? delay : BLOCKED_RETRY_MS);
+            return;
+        }
+        long wait = delay > RECHECK_THRESHOLD_MS ? delay - RECHECK_LEAD_MS : delay;
+        long triggerAt = SystemClock.elapsedRealtime() + wait;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+            // Sin permiso de alarmas exactas el sistema puede retrasarla; la desviación se informa
+            Log.w(TAG, "Alarmas exactas no permitidas, se usa una alarma inexacta");
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, alarmIntent);
+        } else {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, alarmIntent);
+        }
+    }
+
+    private void fire(String key) {
+        CallCommand command = pending.get(key);
+        if (command == null) {
+            return;
+        }
+
+        long executedAt = clockSync.serverNow();
+        long skew = executedAt - command.executeAt;
+        if (skew > MAX_LATE_MS || (command.expiresAt > 0 && executedAt > command.expiresAt)) {
+            Log.w(TAG, "Comando programado caducado " + key + " (" + skew + " ms tarde)");
+            pending.remove(key);
+            save();
+            RestApiManager.getInstance().reportCommandExecution(command, executedAt, skew, false);
+            return;
+        }
+
+        // Por la cola de ejecución: respeta el hueco de llamada y el orden con los demás comandos
+        TraceContext.received(command);
+        CommandPipeline target = pipeline;
+        if (target == null || target.offerScheduled(command) == CommandPipeline.Result.DEFERRED) {
+            // Sin cola todavía o llena: sigue pendiente y se reintenta (rearm)
+            return;
+        }
+        pending.remove(key);
+        save();
+        RestApiManager.getInstance().reportCommandExecution(command, executedAt, skew, true);
+    }
+
+    private static String keyOf(CallCommand command) {
+        if (command.commandId != null && !command.commandId.isEmpty()) {
+            return command.commandId;
+        }
+        return command.sequence + ":" + command.executeAt;
+    }
+
+    // Un comando codificado por línea
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                CallCommand command = MessageCodec.decode(MessageCodec.CALL_COMMAND_ADAPTER, line);
+                if (command != null && command.type != null && command.executeAt > 0) {
+                    pending.put(keyOf(command), command);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error al cargar comandos programados", e);
+        }
+        // Las alarmas no sobreviven a un reinicio: lo vencido se ejecuta (o caduca) ya
+        checkDue();
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+            for (CallCommand command : pending.values()) {
+                writer.write(MessageCodec.encode(MessageCodec.CALL_COMMAND_ADAPTER, command));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error al guardar comandos programados", e);
+            tmp.delete();
+            return;
+        }
+        tmp.renameTo(file);
+    }
+}
@@ -0,0 +1,107 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.telephony.SignalStrength;
+import android.telephony.TelephonyManager;
+
+// Instantánea barata de las condiciones del dispositivo que afectan a la planificación:
+// carga, batería, tipo y calidad de red, pantalla y modo doze.
+public class DeviceConditions {
+    public static final int NETWORK_NONE = 0;
+    public static final int NETWORK_CELLULAR_SLOW = 1;
+    public static final int NETWORK_CELLULAR = 2;
+    public static final int NETWORK_WIFI = 3;
+
+    public boolean isCharging;
+    public int batteryLevel = 100;
+    public int networkClass = NETWORK_NONE;
+    public String networkType = "NONE";
+    public int signalLevel = -1; // 0-4, -1 si no se conoce
+    public boolean isInteractive = true;
+    public boolean isDeviceIdle;
+
+    public static DeviceConditions capture(Context context) {
+        DeviceConditions conditions = new DeviceConditions();
+
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            conditions.isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
+                                    status == BatteryManager.BATTERY_STATUS_FULL;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                conditions.batteryLevel = level * 100 / scale;
+            }
+        }
+
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm != null ? cm.getActiveNetworkInfo() : null;
+        if (activeNetwork != null && activeNetwork.isConnected()) {
+            if (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI) {
+                conditions.networkClass = NETWORK_WIFI;
+                conditions.networkType = "WIFI";
+                WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                if (wifiManager != null) {
+                    conditions.signalLevel = WifiManager.calculateSignalLevel(wifiManager.getConnectionInfo().getRssi(), 5);
+                }
+            } else if (activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE) {
+                conditions.networkClass = isSlowCellular(activeNetwork.getSubtype()) ? NETWORK_CELLULAR_SLOW : NETWORK_CELLULAR;
+                conditions.networkType = activeNetwork.getSubtypeName();
+                conditions.signalLevel = cellularSignalLevel(context);
+            } else {
+                conditions.networkClass = NETWORK_CELLULAR;
+                conditions.networkType = activeNetwork.getTypeName();
+            }
+        }
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            conditions.isInteractive = pm.isInteractive();
+            conditions.isDeviceIdle = pm.isDeviceIdleMode();
+        }
+
+        return conditions;
+    }
+
+    private static boolean isSlowCellular(int subtype) {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int cellularSignalLevel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            return -1;
+        }
+        TelephonyManager tm = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        SignalStrength strength = tm != null ? tm.getSignalStrength() : null;
+        return strength != null ? strength.getLevel() : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceConditions{" +
+               "charging=" + isCharging +
+               ", battery=" + batteryLevel +
+               ", network=" + networkType +
+               ", signal=" + signalLevel +
+               ", idle=" + isDeviceIdle +
+               '}';
+    }
+}
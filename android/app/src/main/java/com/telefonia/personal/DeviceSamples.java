@@ -0,0 +1,107 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+
+// Historial reciente de batería, señal y red para ver su evolución durante las llamadas.
+// Cada métrica se muestrea con su propio trabajo del planificador, a la cadencia de la
+// configuración remota, reutilizando las condiciones que el planificador ya captura en cada
+// despertar. La señal solo se muestrea a su cadencia durante una llamada; fuera de ellas sigue
+// la del informe de estado del perfil. Al terminar una llamada se resume su intervalo en unos
+// pocos cubos.
+public class DeviceSamples {
+    private static DeviceSamples instance;
+
+    private static final int CAPACITY = 1024;
+    // Cubos por métrica en el resumen de una llamada
+    private static final int CALL_BUCKETS = 12;
+
+    private final MetricSeries battery = new MetricSeries("battery", CAPACITY);
+    private final MetricSeries signal = new MetricSeries("signal", CAPACITY);
+    private final MetricSeries network = new MetricSeries("network", CAPACITY);
+    private final RemoteConfig remoteConfig;
+    private final TelemetryScheduler scheduler;
+    // Hay una llamada en curso (solo hay una a la vez)
+    private volatile boolean inCall;
+
+    // Constructor privado (Singleton)
+    private DeviceSamples(Context context) {
+        this.remoteConfig = RemoteConfig.getInstance(context);
+        this.scheduler = TelemetryScheduler.getInstance(context);
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, this::onCallState);
+        scheduler.register("sample-battery", new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                return remoteConfig.get().batterySampleMs;
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                battery.add(System.currentTimeMillis(), conditions.batteryLevel);
+            }
+        });
+        scheduler.register("sample-signal", new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                RemoteConfig.Values values = remoteConfig.get();
+                if (inCall) {
+                    return values.signalSampleMs;
+                }
+                return Math.max(values.signalSampleMs, values.statusIntervalMs(profile));
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                signal.add(System.currentTimeMillis(), conditions.signalLevel);
+            }
+        });
+        scheduler.register("sample-network", new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                return remoteConfig.get().networkSampleMs;
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                network.add(System.currentTimeMillis(), conditions.networkClass);
+            }
+        });
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized DeviceSamples getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceSamples(context);
+        }
+        return instance;
+    }
+
+    private void onCallState(CallStatusEvent event) {
+        if (event.status == null) {
+            return;
+        }
+        switch (event.status) {
+            case "dialing":
+            case "started":
+            case "answered":
+                if (!inCall) {
+                    inCall = true;
+                    // El planificador adelanta el trabajo de señal al intervalo de llamada
+                    scheduler.refresh();
+                }
+                break;
+            case "ended":
+            case "failed":
+                inCall = false;
+                break;
+        }
+    }
+
+    // Resumen de las tres métricas entre el inicio de una llamada y ahora
+    public MetricSeries.Summary[] summarize(long from, long to) {
+        return new MetricSeries.Summary[] {
+            battery.downsample(from, to, CALL_BUCKETS),
+            signal.downsample(from, to, CALL_BUCKETS),
+            network.downsample(from, to, CALL_BUCKETS)
+        };
+    }
+}
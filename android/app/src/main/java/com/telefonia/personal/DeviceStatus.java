@@ -0,0 +1,38 @@
+package com.telefonia.personal;
+
+public class DeviceStatus {
+    public static final String TYPE = "DEVICE_STATUS";
+    
+    // Estado del dispositivo
+    public String deviceId;
+    public String status;
+    public int batteryLevel;
+    public boolean isCharging;
+    public String networkType;
+    public int signalStrength;
+    public long timestamp;
+    
+    // Métricas de red
+    public int dnsCacheHitRate;
+    public long avgTlsHandshakeMs;
+    
+    // Versión de la configuración remota activa
+    public int configVersion;
+    
+    // Uso de cada línea (SIM): llamadas en curso, llamadas y segundos del día
+    public SimRouter.LineUsage[] lines;
+    
+    // Constructor vacío
+    public DeviceStatus() {
+        // Constructor vacío necesario para serialización
+    }
+    
+    @Override
+    public String toString() {
+        return "DeviceStatus{" +
+               "status='" + status + '\'' +
+               ", batteryLevel=" + batteryLevel +
+               ", networkType='" + networkType + '\'' +
+               '}';
+    }
+}
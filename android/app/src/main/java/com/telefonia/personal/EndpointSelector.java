@@ -0,0 +1,274 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Selección de servidor entre varios puntos de entrada regionales.
+// Mide en segundo plano el RTT y la tasa de error de cada endpoint (medias móviles
+// exponenciales), elige el de mejor puntuación y cambia a otro sin re-emparejar cuando
+// el actual acumula fallos. La lista llega en el emparejamiento o al conectar.
+public class EndpointSelector implements ChunkedUploader.ServerEndpoint {
+    private static final String TAG = "EndpointSelector";
+    private static EndpointSelector instance;
+
+    private static final String ENDPOINTS_KEY = "server_endpoints";
+    private static final String ACTIVE_KEY = "server_endpoint_active";
+    private static final String PROBE_ENDPOINT = "/api/public/ping";
+    private static final String PROBE_JOB = "endpoint-probe";
+
+    private static final double EWMA_ALPHA = 0.3;
+    private static final double ERROR_PENALTY = 4.0;
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    // Solo se cambia de endpoint si el candidato mejora la puntuación de forma clara
+    private static final double SWITCH_MARGIN = 0.8;
+
+    private final SharedPreferences preferences;
+    private final OkHttpClient probeClient;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private Endpoint active;
+    private String configuredUrl;
+
+    private static final class Endpoint {
+        final String url;
+        double rttMs = -1;
+        double errorRate = 0;
+        int consecutiveFailures = 0;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        double score() {
+            // Sin medidas aún: se considera peor que cualquier endpoint medido
+            double rtt = rttMs < 0 ? 10000 : rttMs;
+            return rtt * (1 + ERROR_PENALTY * errorRate);
+        }
+    }
+
+    // Constructor privado (Singleton)
+    private EndpointSelector(Context context) {
+        this.preferences = KeyValueStore.getInstance(context);
+        this.probeClient = NetworkStack.getInstance(context).newClientBuilder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .readTimeout(5, TimeUnit.SECONDS)
+            .build();
+        loadEndpoints();
+
+        TelemetryScheduler.getInstance(context).register(PROBE_JOB, new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                // Sondear con mucha menos frecuencia que el polling
+                return profile.statusIntervalMs * 2;
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                if (conditions.networkClass != DeviceConditions.NETWORK_NONE) {
+                    probeAll();
+                }
+            }
+        });
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized EndpointSelector getInstance(Context context) {
+        if (instance == null) {
+            instance = new EndpointSelector(context);
+        }
+        return instance;
+    }
+
+    // URL base del endpoint activo, o "" si no hay ninguno configurado
+    @Override
+    public synchronized String current() {
+        // Una URL introducida a mano en la configuración pasa a ser la activa
+        String primary = preferences.getString("serverUrl", "");
+        if (!primary.isEmpty() && !primary.equals(configuredUrl)) {
+            configuredUrl = primary;
+            Endpoint endpoint = find(primary);
+            if (endpoint == null) {
+                endpoint = new Endpoint(primary);
+                endpoints.add(0, endpoint);
+            }
+            setActive(endpoint);
+        }
+        return active != null ? active.url : "";
+    }
+
+    // Reemplazar la lista de endpoints (emparejamiento o respuesta del servidor). La URL
+    // configurada en el dispositivo se conserva siempre como alternativa
+    public synchronized void updateEndpoints(JSONArray urls) {
+        List<Endpoint> updated = new ArrayList<>();
+        for (int i = 0; i < urls.length(); i++) {
+            String url = urls.optString(i, "");
+            if (url.isEmpty()) {
+                continue;
+            }
+            Endpoint existing = find(url);
+            updated.add(existing != null ? existing : new Endpoint(url));
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+        if (configuredUrl != null && !configuredUrl.isEmpty() && !containsUrl(updated, configuredUrl)) {
+            Endpoint configured = find(configuredUrl);
+            updated.add(configured != null ? configured : new Endpoint(configuredUrl));
+        }
+        endpoints.clear();
+        endpoints.addAll(updated);
+        if (active == null || !endpoints.contains(active)) {
+            setActive(endpoints.get(0));
+        }
+        preferences.edit().putString(ENDPOINTS_KEY, urls.toString()).apply();
+        Log.i(TAG, "Lista de endpoints actualizada: " + endpoints.size());
+    }
+
+    // Registrar una petición correcta contra un endpoint; latencyMs < 0 si no sirve como RTT
+    public synchronized void reportSuccess(String url, long latencyMs) {
+        Endpoint endpoint = find(url);
+        if (endpoint != null) {
+            record(endpoint, true, latencyMs);
+        }
+    }
+
+    // Registrar un fallo; si el endpoint activo acumula fallos se cambia al siguiente mejor
+    @Override
+    public synchronized void reportFailure(String url) {
+        Endpoint endpoint = find(url);
+        if (endpoint == null) {
+            return;
+        }
+        record(endpoint, false, 0);
+        if (endpoint == active && endpoint.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            Endpoint next = best(endpoint);
+            if (next != null) {
+                Log.w(TAG, "Failover de " + endpoint.url + " a " + next.url);
+                setActive(next);
+            }
+        }
+    }
+
+    // Sondear todos los endpoints y elegir el mejor
+    public void probeAll() {
+        List<Endpoint> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(endpoints);
+        }
+        for (final Endpoint endpoint : snapshot) {
+            final long start = SystemClock.elapsedRealtime();
+            Request request = new Request.Builder()
+                .url(endpoint.url + PROBE_ENDPOINT)
+                .head()
+                .build();
+            probeClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    onProbeResult(endpoint, false, 0);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    onProbeResult(endpoint, response.code() < 500, SystemClock.elapsedRealtime() - start);
+                }
+            });
+        }
+    }
+
+    private synchronized void onProbeResult(Endpoint endpoint, boolean success, long latencyMs) {
+        record(endpoint, success, latencyMs);
+        Endpoint candidate = best(null);
+        if (candidate != null && candidate != active &&
+                (active == null || candidate.score() < active.score() * SWITCH_MARGIN)) {
+            Log.i(TAG, "Cambio a endpoint de menor latencia: " + candidate.url);
+            setActive(candidate);
+        }
+    }
+
+    private void record(Endpoint endpoint, boolean success, long latencyMs) {
+        endpoint.errorRate = EWMA_ALPHA * (success ? 0 : 1) + (1 - EWMA_ALPHA) * endpoint.errorRate;
+        if (success) {
+            endpoint.consecutiveFailures = 0;
+            if (latencyMs >= 0) {
+                endpoint.rttMs = endpoint.rttMs < 0 ? latencyMs : EWMA_ALPHA * latencyMs + (1 - EWMA_ALPHA) * endpoint.rttMs;
+            }
+        } else {
+            endpoint.consecutiveFailures++;
+        }
+    }
+
+    private Endpoint best(Endpoint excluded) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == excluded) {
+                continue;
+            }
+            if (best == null || endpoint.score() < best.score()) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    private static boolean containsUrl(List<Endpoint> list, String url) {
+        for (Endpoint endpoint : list) {
+            if (endpoint.url.equals(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Endpoint find(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private void setActive(Endpoint endpoint) {
+        active = endpoint;
+        preferences.edit().putString(ACTIVE_KEY, endpoint.url).apply();
+    }
+
+    private void loadEndpoints() {
+        String primary = preferences.getString("serverUrl", "");
+        configuredUrl = primary;
+        String stored = preferences.getString(ENDPOINTS_KEY, "");
+        try {
+            JSONArray urls = stored.isEmpty() ? new JSONArray() : new JSONArray(stored);
+            for (int i = 0; i < urls.length(); i++) {
+                String url = urls.optString(i, "");
+                if (!url.isEmpty() && find(url) == null) {
+                    endpoints.add(new Endpoint(url));
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Lista de endpoints guardada no válida", e);
+        }
+        if (!primary.isEmpty() && find(primary) == null) {
+            endpoints.add(new Endpoint(primary));
+        }
+
+        Endpoint restored = find(preferences.getString(ACTIVE_KEY, primary));
+        active = restored != null ? restored : (endpoints.isEmpty() ? null : endpoints.get(0));
+    }
+}
@@ -0,0 +1,154 @@
+package com.telefonia.personal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+// Bus de eventos interno con suscripciones tipadas por tema.
+// Cada tema guarda sus suscriptores en un array copy-on-write: publicar solo lee una
+// referencia volátil y recorre el array sin bloqueos ni asignaciones, y suscribir o
+// desuscribir crea un array nuevo bajo el monitor del tema. Cada suscriptor elige el
+// Executor en el que recibe los eventos.
+public final class EventBus {
+    private static final String TAG = "EventBus";
+
+    // Entrega en el hilo que publica
+    public static final Executor DIRECT = Runnable::run;
+    // Entrega en el hilo principal
+    public static final Executor MAIN_THREAD = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
+
+    public static final Topic<ConnectionEvent> CONNECTION = new Topic<>("connection");
+    public static final Topic<CallCommand> COMMAND = new Topic<>("command");
+    public static final Topic<CallStatusEvent> CALL_STATE = new Topic<>("call-state");
+    public static final Topic<DeviceStatus> TELEMETRY = new Topic<>("telemetry");
+    public static final Topic<RemoteConfig.Values> CONFIG = new Topic<>("config");
+
+    private EventBus() {
+    }
+
+    // Suscribirse a un tema
+    public static <T> void subscribe(Topic<T> topic, Executor executor, Subscriber<T> subscriber) {
+        topic.add(new Registration<>(executor, subscriber));
+    }
+
+    // Cancelar una suscripción
+    public static <T> void unsubscribe(Topic<T> topic, Subscriber<T> subscriber) {
+        topic.remove(subscriber);
+    }
+
+    // Publicar un evento a todos los suscriptores del tema
+    public static <T> void publish(Topic<T> topic, T event) {
+        Registration<T>[] snapshot = topic.subscribers;
+        for (Registration<T> registration : snapshot) {
+            registration.deliver(event);
+        }
+    }
+
+    // Suscriptores de todos los temas; debe mantenerse estable durante la vida del proceso
+    public static int subscriberCount() {
+        return CONNECTION.subscriberCount() + COMMAND.subscriberCount() + CALL_STATE.subscriberCount() +
+               TELEMETRY.subscriberCount() + CONFIG.subscriberCount();
+    }
+
+    // Interfaz para suscriptores
+    public interface Subscriber<T> {
+        void onEvent(T event);
+    }
+
+    // Evento de cambio de estado de conexión
+    public static final class ConnectionEvent {
+        public final String transport;
+        public final boolean connected;
+        public final String message;
+
+        public ConnectionEvent(String transport, boolean connected, String message) {
+            this.transport = transport;
+            this.connected = connected;
+            this.message = message;
+        }
+    }
+
+    public static final class Topic<T> {
+        private final String name;
+        private volatile Registration<T>[] subscribers = newArray(0);
+
+        private Topic(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int subscriberCount() {
+            return subscribers.length;
+        }
+
+        private synchronized void add(Registration<T> registration) {
+            Registration<T>[] current = subscribers;
+            for (Registration<T> existing : current) {
+                if (existing.subscriber == registration.subscriber) {
+                    return;
+                }
+            }
+            Registration<T>[] updated = newArray(current.length + 1);
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = registration;
+            subscribers = updated;
+        }
+
+        private synchronized void remove(Subscriber<T> subscriber) {
+            Registration<T>[] current = subscribers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].subscriber == subscriber) {
+                    Registration<T>[] updated = newArray(current.length - 1);
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    subscribers = updated;
+                    return;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Registration<T>[] newArray(int size) {
+            return (Registration<T>[]) new Registration[size];
+        }
+    }
+
+    private static final class Registration<T> {
+        private final Executor executor;
+        private final Subscriber<T> subscriber;
+
+        Registration(Executor executor, Subscriber<T> subscriber) {
+            this.executor = executor;
+            this.subscriber = subscriber;
+        }
+
+        void deliver(final T event) {
+            if (executor == DIRECT) {
+                dispatch(event);
+            } else {
+                executor.execute(() -> dispatch(event));
+            }
+        }
+
+        private void dispatch(T event) {
+            try {
+                subscriber.onEvent(event);
+            } catch (RuntimeException e) {
+                // Un suscriptor con errores no debe cortar la entrega a los demás
+                Log.e(TAG, "Error en suscriptor", e);
+            }
+        }
+    }
+}
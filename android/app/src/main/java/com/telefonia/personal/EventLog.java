@@ -0,0 +1,110 @@
+package com.telefonia.personal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+// Registro estructurado en memoria para los caminos calientes.
+// Cada evento es un registro binario de tamaño fijo (marca de tiempo, código y dos
+// argumentos numéricos) escrito en un buffer circular preasignado, más un String ya
+// existente opcional en un array paralelo: registrar un evento no asigna memoria ni
+// formatea cadenas. El contenido se vuelca comprimido bajo demanda (comando DUMP_LOGS del
+// servidor) y sale del dispositivo, así que nunca guarda números de teléfono: los eventos
+// de llamada llevan en arg0 el hash de numberKey (numberHash).
+public final class EventLog {
+    // Códigos de evento
+    public static final short HTTP_REQUEST = 1;
+    public static final short HTTP_FAILURE = 2;
+    public static final short PHONE_STATE = 10; // arg0: 1 = contestada, 2 = finalizada (arg1 = duración en s)
+    public static final short OUTGOING_CALL = 11; // arg0: numberHash
+    public static final short INCOMING_CALL = 12; // arg0: numberHash
+    public static final short CALL_DIAL = 20; // arg0: numberHash
+    public static final short CALL_HANGUP = 21;
+    public static final short CALL_FAILED = 22; // arg0: numberHash
+    public static final short COMMAND_RECEIVED = 30;
+
+    private static final int CAPACITY = 4096; // potencia de 2
+    private static final int MASK = CAPACITY - 1;
+    // ts(8) + código(2) + relleno(6) + arg0(8) + arg1(8)
+    private static final int RECORD_SIZE = 32;
+    private static final int DUMP_MAGIC = 0x544C4F47; // "TLOG"
+    private static final int DUMP_VERSION = 2; // 2: arg0 de los eventos de llamada es numberHash
+
+    private static final ByteBuffer records = ByteBuffer.allocateDirect(CAPACITY * RECORD_SIZE);
+    private static final String[] strings = new String[CAPACITY];
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private EventLog() {
+    }
+
+    public static void record(short code) {
+        record(code, 0, 0, null);
+    }
+
+    public static void record(short code, long arg0) {
+        record(code, arg0, 0, null);
+    }
+
+    public static void record(short code, long arg0, long arg1) {
+        record(code, arg0, arg1, null);
+    }
+
+    // Registrar un evento; text debe ser un String ya existente (no se copia)
+    public static void record(short code, long arg0, long arg1, String text) {
+        long seq = sequence.getAndIncrement();
+        int slot = (int) (seq & MASK);
+        int offset = slot * RECORD_SIZE;
+        records.putLong(offset, System.currentTimeMillis());
+        records.putShort(offset + 8, code);
+        records.putLong(offset + 16, arg0);
+        records.putLong(offset + 24, arg1);
+        strings[slot] = text;
+    }
+
+    // Hash FNV-1a de 64 bits de un numberKey (PhoneNumberNormalizer), para correlacionar
+    // eventos de una misma llamada sin registrar el número; 0 si no hay número
+    public static long numberHash(String numberKey) {
+        if (numberKey == null || numberKey.isEmpty()) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < numberKey.length(); i++) {
+            hash ^= numberKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Volcar el buffer (del más antiguo al más reciente) en formato binario comprimido con gzip.
+    // Formato: magic, versión, número de registros y por registro ts, código, arg0, arg1, texto.
+    public static byte[] dumpCompressed() throws IOException {
+        long end = sequence.get();
+        long start = Math.max(0, end - CAPACITY);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(DUMP_MAGIC);
+            out.writeInt(DUMP_VERSION);
+            out.writeInt((int) (end - start));
+            for (long seq = start; seq < end; seq++) {
+                int slot = (int) (seq & MASK);
+                int offset = slot * RECORD_SIZE;
+                String text = strings[slot];
+                out.writeLong(records.getLong(offset));
+                out.writeShort(records.getShort(offset + 8));
+                out.writeLong(records.getLong(offset + 16));
+                out.writeLong(records.getLong(offset + 24));
+                out.writeUTF(text != null ? text : "");
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // Número total de eventos registrados desde el arranque
+    public static long count() {
+        return sequence.get();
+    }
+}
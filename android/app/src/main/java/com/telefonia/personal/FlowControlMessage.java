@@ -0,0 +1,32 @@
+package com.telefonia.personal;
+
+public class FlowControlMessage {
+    // Concesión de créditos al servidor
+    public static final String TYPE_CREDIT = "FLOW_CREDIT";
+    // Comando recibido sin crédito disponible: descartado, el servidor debe reenviarlo
+    public static final String TYPE_REJECTED = "FLOW_REJECTED";
+    
+    public String type;
+    // Créditos nuevos concedidos con este mensaje
+    public int grant;
+    // Ventana total y comandos en curso en el dispositivo
+    public int window;
+    public int inFlight;
+    // true al abrir la conexión: el servidor descarta los créditos anteriores
+    public boolean reset;
+    public String commandId;
+    
+    // Constructor vacío
+    public FlowControlMessage() {
+        // Constructor vacío necesario para serialización
+    }
+    
+    @Override
+    public String toString() {
+        return "FlowControlMessage{" +
+               "type='" + type + '\'' +
+               ", grant=" + grant +
+               ", inFlight=" + inFlight +
+               '}';
+    }
+}
@@ -0,0 +1,520 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+// Almacén clave-valor con la interfaz de SharedPreferences sobre un registro de solo anexado
+// mapeado en memoria. Las lecturas salen de un mapa en memoria y cada cambio añade un registro
+// pequeño al final del archivo (en lugar de reescribir el XML completo). Cuando el archivo se
+// llena se compacta reescribiendo solo los valores vivos. En la primera apertura migra las
+// claves del archivo "TelefoniaPersonal" de SharedPreferences.
+public class KeyValueStore implements SharedPreferences {
+    private static final String TAG = "KeyValueStore";
+    private static KeyValueStore instance;
+
+    private static final String LEGACY_PREFERENCES = "TelefoniaPersonal";
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // Registro: longitud (int), CRC32 (int), clave (short + UTF-8), tipo (byte), valor
+    private static final int RECORD_HEADER = 8;
+
+    private static final byte TYPE_REMOVED = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    // Marca el valor eliminado dentro de un lote de cambios
+    private static final Object REMOVED = new Object();
+
+    private final File file;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final List<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private Handler mainHandler;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    // Constructor privado (Singleton)
+    private KeyValueStore(Context context) {
+        this.file = new File(context.getFilesDir(), "kv.log");
+        try {
+            if (file.exists()) {
+                open(Math.max(INITIAL_CAPACITY, (int) file.length()));
+                load();
+            } else {
+                migrate(context.getSharedPreferences(LEGACY_PREFERENCES, Context.MODE_PRIVATE));
+            }
+        } catch (IOException e) {
+            // Sin archivo se sigue funcionando en memoria; los cambios no persistirán
+            Log.e(TAG, "No se pudo abrir el almacén", e);
+        }
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized KeyValueStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new KeyValueStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = values.get(key);
+        return value instanceof Set ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = values.get(key);
+        return value instanceof Float ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new StoreEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Aplicar un lote de cambios: memoria y registro en disco bajo el mismo monitor
+    private synchronized boolean write(Map<String, Object> changes, boolean clear) {
+        boolean persisted = true;
+        if (clear) {
+            for (String key : values.keySet()) {
+                if (!changes.containsKey(key)) {
+                    changes.put(key, REMOVED);
+                }
+            }
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            if (value == REMOVED) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), value);
+            }
+            persisted &= append(change.getKey(), value);
+        }
+        notifyListeners(changes.keySet());
+        return persisted;
+    }
+
+    private boolean append(String key, Object value) {
+        if (buffer == null) {
+            return false;
+        }
+        byte[] record = encode(key, value);
+        try {
+            if (buffer.position() + RECORD_HEADER + record.length + 4 > capacity) {
+                compact(RECORD_HEADER + record.length);
+                // La compactación ya escribe el valor actual de la clave
+                return true;
+            }
+            crc.reset();
+            crc.update(record, 0, record.length);
+            buffer.putInt(record.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(record);
+            // Longitud 0 marca el final del registro
+            buffer.putInt(buffer.position(), 0);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error al escribir en el almacén", e);
+            return false;
+        }
+    }
+
+    // Reescribir solo los valores vivos en un archivo nuevo, ampliándolo si hace falta
+    private void compact(int extra) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        int size = 4;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            byte[] record = encode(entry.getKey(), entry.getValue());
+            records.add(record);
+            size += RECORD_HEADER + record.length;
+        }
+        int newCapacity = INITIAL_CAPACITY;
+        while (newCapacity < (size + extra) * 2) {
+            newCapacity *= 2;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.delete();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(newCapacity);
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+            for (byte[] record : records) {
+                crc.reset();
+                crc.update(record, 0, record.length);
+                out.putInt(record.length);
+                out.putInt((int) crc.getValue());
+                out.put(record);
+            }
+            out.putInt(out.position(), 0);
+            out.force();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("No se pudo reemplazar el almacén");
+        }
+        open(newCapacity);
+        skipRecords();
+    }
+
+    private void open(int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            capacity = size;
+            // El mapeo sigue siendo válido después de cerrar el canal
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // Recorrer el registro aplicando cada cambio; se detiene en el final o en un registro dañado
+    private void load() {
+        buffer.position(0);
+        while (true) {
+            Record record = nextRecord();
+            if (record == null) {
+                break;
+            }
+            if (record.value == REMOVED) {
+                values.remove(record.key);
+            } else {
+                values.put(record.key, record.value);
+            }
+        }
+    }
+
+    // Avanzar hasta el final del registro (tras compactar)
+    private void skipRecords() {
+        buffer.position(0);
+        while (nextRecord() != null) {
+            // solo se avanza la posición
+        }
+    }
+
+    private static final class Record {
+        final String key;
+        final Object value;
+
+        Record(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private Record nextRecord() {
+        int start = buffer.position();
+        if (start + RECORD_HEADER > capacity) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length <= 0 || start + RECORD_HEADER + length + 4 > capacity) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        buffer.position(start + RECORD_HEADER);
+        buffer.get(record);
+        crc.reset();
+        crc.update(record, 0, length);
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            // Escritura interrumpida: lo posterior se descarta y se sobrescribe
+            Log.w(TAG, "Registro dañado en " + start + ", se trunca");
+            buffer.position(start);
+            buffer.putInt(start, 0);
+            return null;
+        }
+        return decode(record);
+    }
+
+    private static byte[] encode(String key, Object value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte type;
+        byte[] payload;
+        if (value == REMOVED) {
+            type = TYPE_REMOVED;
+            payload = new byte[0];
+        } else if (value instanceof String) {
+            type = TYPE_STRING;
+            payload = ((String) value).getBytes(StandardCharsets.UTF_8);
+        } else if (value instanceof Integer) {
+            type = TYPE_INT;
+            payload = toBytes((Integer) value, 4);
+        } else if (value instanceof Long) {
+            type = TYPE_LONG;
+            payload = toBytes((Long) value, 8);
+        } else if (value instanceof Boolean) {
+            type = TYPE_BOOLEAN;
+            payload = new byte[] {(byte) ((Boolean) value ? 1 : 0)};
+        } else if (value instanceof Float) {
+            type = TYPE_FLOAT;
+            payload = toBytes(Float.floatToIntBits((Float) value), 4);
+        } else {
+            type = TYPE_STRING_SET;
+            payload = encodeSet((Set<?>) value);
+        }
+        byte[] record = new byte[2 + keyBytes.length + 1 + payload.length];
+        record[0] = (byte) (keyBytes.length >> 8);
+        record[1] = (byte) keyBytes.length;
+        System.arraycopy(keyBytes, 0, record, 2, keyBytes.length);
+        record[2 + keyBytes.length] = type;
+        System.arraycopy(payload, 0, record, 3 + keyBytes.length, payload.length);
+        return record;
+    }
+
+    private static Record decode(byte[] record) {
+        int keyLength = ((record[0] & 0xff) << 8) | (record[1] & 0xff);
+        String key = new String(record, 2, keyLength, StandardCharsets.UTF_8);
+        int offset = 3 + keyLength;
+        int length = record.length - offset;
+        Object value;
+        switch (record[2 + keyLength]) {
+            case TYPE_STRING:
+                value = new String(record, offset, length, StandardCharsets.UTF_8);
+                break;
+            case TYPE_INT:
+                value = (int) fromBytes(record, offset, 4);
+                break;
+            case TYPE_LONG:
+                value = fromBytes(record, offset, 8);
+                break;
+            case TYPE_BOOLEAN:
+                value = record[offset] != 0;
+                break;
+            case TYPE_FLOAT:
+                value = Float.intBitsToFloat((int) fromBytes(record, offset, 4));
+                break;
+            case TYPE_STRING_SET:
+                value = decodeSet(record, offset);
+                break;
+            default:
+                value = REMOVED;
+                break;
+        }
+        return new Record(key, value);
+    }
+
+    // Conjunto: número de elementos y, por elemento, longitud (int) + UTF-8
+    private static byte[] encodeSet(Set<?> set) {
+        List<byte[]> items = new ArrayList<>();
+        int size = 4;
+        for (Object item : set) {
+            byte[] bytes = String.valueOf(item).getBytes(StandardCharsets.UTF_8);
+            items.add(bytes);
+            size += 4 + bytes.length;
+        }
+        byte[] out = new byte[size];
+        System.arraycopy(toBytes(items.size(), 4), 0, out, 0, 4);
+        int offset = 4;
+        for (byte[] bytes : items) {
+            System.arraycopy(toBytes(bytes.length, 4), 0, out, offset, 4);
+            System.arraycopy(bytes, 0, out, offset + 4, bytes.length);
+            offset += 4 + bytes.length;
+        }
+        return out;
+    }
+
+    private static Set<String> decodeSet(byte[] record, int offset) {
+        int count = (int) fromBytes(record, offset, 4);
+        Set<String> set = new HashSet<>();
+        offset += 4;
+        for (int i = 0; i < count; i++) {
+            int length = (int) fromBytes(record, offset, 4);
+            set.add(new String(record, offset + 4, length, StandardCharsets.UTF_8));
+            offset += 4 + length;
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static byte[] toBytes(long value, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = size - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>= 8;
+        }
+        return bytes;
+    }
+
+    private static long fromBytes(byte[] bytes, int offset, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        // Enteros de 4 bytes con signo
+        return size == 4 ? (int) value : value;
+    }
+
+    // Copiar las claves del archivo XML anterior (una sola vez) y vaciarlo
+    // Las claves migradas se escriben en un archivo temporal que se renombra al final (como al
+    // compactar): el almacén solo existe si la migración terminó, y si no se repite al arrancar
+    private void migrate(SharedPreferences legacy) throws IOException {
+        Map<String, Object> changes = new HashMap<>();
+        for (Map.Entry<String, ?> entry : legacy.getAll().entrySet()) {
+            if (entry.getValue() != null) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        // PhoneStateReceiver leía "device_id", que nunca se escribía; la clave correcta es "deviceId"
+        Object legacyDeviceId = changes.remove("device_id");
+        if (legacyDeviceId != null && !changes.containsKey("deviceId")) {
+            changes.put("deviceId", legacyDeviceId);
+        }
+        values.putAll(changes);
+        compact(0);
+        if (!changes.isEmpty()) {
+            Log.i(TAG, "Migradas " + changes.size() + " claves de SharedPreferences");
+        }
+        legacy.edit().clear().apply();
+    }
+
+    private void notifyListeners(final Set<String> keys) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final List<String> changed = new ArrayList<>(keys);
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        mainHandler.post(() -> {
+            for (OnSharedPreferenceChangeListener listener : listeners) {
+                for (String key : changed) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        });
+    }
+
+    private class StoreEditor implements Editor {
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            changes.put(key, value != null ? value : REMOVED);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : REMOVED);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(new HashMap<>(changes), clear);
+        }
+
+        @Override
+        public void apply() {
+            // La escritura es un anexado en memoria mapeada: no hace falta diferirla
+            commit();
+        }
+    }
+}
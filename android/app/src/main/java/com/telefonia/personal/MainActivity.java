@@ -53,7 +53,7 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         
         // Inicializar preferencias
-        preferences = getSharedPreferences("TelefoniaPersonal", MODE_PRIVATE);
+        preferences = KeyValueStore.getInstance(this);
         
         // Inicializar vistas
         statusTextView = findViewById(R.id.statusTextView);
@@ -235,6 +235,8 @@ public class MainActivity extends AppCompatActivity {
                 preferences.edit()
                     .remove("deviceId")
                     .remove("serverToken")
+                    .remove("session_token")
+                    .remove("session_last_sequence")
                     .apply();
                 
                 // Mostrar vista de emparejamiento
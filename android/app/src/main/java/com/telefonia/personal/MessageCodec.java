@@ -0,0 +1,307 @@
+package com.telefonia.personal;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+// Codificación de los mensajes del protocolo con TypeAdapters escritos a mano.
+// Evita la reflexión de Gson y los árboles JsonObject: los mensajes se escriben en streaming
+// y solo CallCommand, el único que llega del servidor, tiene decodificador. La codificación
+// reutiliza el StringWriter del hilo; cada mensaje sigue creando su JsonWriter y su String.
+public final class MessageCodec {
+    private static final int MAX_POOLED_BUFFER = 16 * 1024;
+
+    public static final TypeAdapter<CallCommand> CALL_COMMAND_ADAPTER = new CallCommandAdapter();
+    public static final TypeAdapter<CallStatusEvent> CALL_STATUS_ADAPTER = new CallStatusEventAdapter();
+    public static final TypeAdapter<DeviceStatus> DEVICE_STATUS_ADAPTER = new DeviceStatusAdapter();
+    public static final TypeAdapter<FlowControlMessage> FLOW_CONTROL_ADAPTER = new FlowControlMessageAdapter();
+    public static final TypeAdapter<CallRecord> CALL_RECORD_ADAPTER = new CallRecordAdapter();
+
+    // Buffer de salida reutilizado por cada hilo
+    private static final ThreadLocal<StringWriter> WRITER_POOL = new ThreadLocal<StringWriter>() {
+        @Override
+        protected StringWriter initialValue() {
+            return new StringWriter(512);
+        }
+    };
+
+    private MessageCodec() {
+    }
+
+    // Serializa un mensaje usando el buffer del hilo actual
+    public static <T> String encode(TypeAdapter<T> adapter, T message) {
+        StringWriter buffer = WRITER_POOL.get();
+        StringBuffer chars = buffer.getBuffer();
+        chars.setLength(0);
+        try {
+            adapter.write(new JsonWriter(buffer), message);
+            return chars.toString();
+        } catch (IOException e) {
+            // StringWriter no lanza IOException
+            throw new IllegalStateException(e);
+        } finally {
+            // No retener buffers grandes tras un mensaje excepcional
+            if (chars.capacity() > MAX_POOLED_BUFFER) {
+                WRITER_POOL.remove();
+            }
+        }
+    }
+
+    // Deserializa un mensaje en streaming; devuelve null si el JSON no es válido
+    public static <T> T decode(TypeAdapter<T> adapter, String json) {
+        try {
+            return adapter.read(new JsonReader(new StringReader(json)));
+        } catch (IOException | IllegalStateException | NumberFormatException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    // Base de los mensajes que solo envía el dispositivo: no hay nada que decodificar
+    private abstract static class WriteOnlyAdapter<T> extends TypeAdapter<T> {
+        @Override
+        public T read(JsonReader in) {
+            throw new UnsupportedOperationException("Mensaje solo de salida");
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    // Resumen por cubos de una serie: {"metric", "from", "bucketMs", "min", "max", "avg", "count"}
+    private static void writeSummary(JsonWriter out, MetricSeries.Summary summary) throws IOException {
+        out.beginObject();
+        writeString(out, "metric", summary.metric);
+        out.name("from").value(summary.from);
+        out.name("bucketMs").value(summary.bucketMs);
+        out.name("min").beginArray();
+        for (short value : summary.min) {
+            out.value(value);
+        }
+        out.endArray();
+        out.name("max").beginArray();
+        for (short value : summary.max) {
+            out.value(value);
+        }
+        out.endArray();
+        out.name("avg").beginArray();
+        for (short value : summary.avg) {
+            out.value(value);
+        }
+        out.endArray();
+        out.name("count").beginArray();
+        for (int value : summary.count) {
+            out.value(value);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private static class CallCommandAdapter extends TypeAdapter<CallCommand> {
+        @Override
+        public void write(JsonWriter out, CallCommand value) throws IOException {
+            out.beginObject();
+            writeString(out, "type", value.type);
+            writeString(out, "commandId", value.commandId);
+            out.name("sequence").value(value.sequence);
+            out.name("issuedAt").value(value.issuedAt);
+            out.name("expiresAt").value(value.expiresAt);
+            out.name("executeAt").value(value.executeAt);
+            writeString(out, "traceId", value.traceId);
+            if (value.receivedAt > 0) {
+                out.name("receivedAt").value(value.receivedAt);
+            }
+            writeString(out, "callId", value.callId);
+            writeString(out, "phoneNumber", value.phoneNumber);
+            writeString(out, "direction", value.direction);
+            if (value.config != null) {
+                out.name("config").jsonValue(value.config);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public CallCommand read(JsonReader in) throws IOException {
+            CallCommand command = new CallCommand();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "type":
+                        command.type = nextStringOrNull(in);
+                        break;
+                    case "commandId":
+                        command.commandId = nextStringOrNull(in);
+                        break;
+                    case "sequence":
+                        command.sequence = in.nextLong();
+                        break;
+                    case "issuedAt":
+                        command.issuedAt = in.nextLong();
+                        break;
+                    case "expiresAt":
+                        command.expiresAt = in.nextLong();
+                        break;
+                    case "executeAt":
+                        command.executeAt = in.nextLong();
+                        break;
+                    case "traceId":
+                        command.traceId = nextStringOrNull(in);
+                        break;
+                    case "receivedAt":
+                        command.receivedAt = in.nextLong();
+                        break;
+                    case "callId":
+                        command.callId = nextStringOrNull(in);
+                        break;
+                    case "phoneNumber":
+                        command.phoneNumber = nextStringOrNull(in);
+                        break;
+                    case "direction":
+                        command.direction = nextStringOrNull(in);
+                        break;
+                    case "config":
+                        // Poco frecuente: se conserva el documento como texto para RemoteConfig
+                        command.config = JsonParser.parseReader(in).toString();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return command;
+        }
+    }
+
+    private static class CallStatusEventAdapter extends WriteOnlyAdapter<CallStatusEvent> {
+        @Override
+        public void write(JsonWriter out, CallStatusEvent value) throws IOException {
+            out.beginObject();
+            out.name("type").value(CallStatusEvent.TYPE);
+            writeString(out, "callId", value.callId);
+            writeString(out, "status", value.status);
+            writeString(out, "phoneNumber", value.phoneNumber);
+            writeString(out, "numberKey", value.numberKey);
+            writeString(out, "direction", value.direction);
+            out.name("duration").value(value.duration);
+            out.name("timestamp").value(value.timestamp);
+            writeString(out, "traceId", value.traceId);
+            if (value.spans != null) {
+                out.name("spans").beginArray();
+                for (long span : value.spans) {
+                    out.value(span);
+                }
+                out.endArray();
+            }
+            if (value.samples != null) {
+                out.name("samples").beginArray();
+                for (MetricSeries.Summary summary : value.samples) {
+                    writeSummary(out, summary);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+
+    private static class DeviceStatusAdapter extends WriteOnlyAdapter<DeviceStatus> {
+        @Override
+        public void write(JsonWriter out, DeviceStatus value) throws IOException {
+            out.beginObject();
+            out.name("type").value(DeviceStatus.TYPE);
+            writeString(out, "deviceId", value.deviceId);
+            writeString(out, "status", value.status);
+            out.name("batteryLevel").value(value.batteryLevel);
+            out.name("isCharging").value(value.isCharging);
+            writeString(out, "networkType", value.networkType);
+            out.name("signalStrength").value(value.signalStrength);
+            out.name("timestamp").value(value.timestamp);
+            out.name("dnsCacheHitRate").value(value.dnsCacheHitRate);
+            out.name("avgTlsHandshakeMs").value(value.avgTlsHandshakeMs);
+            out.name("configVersion").value(value.configVersion);
+            if (value.lines != null) {
+                out.name("lines").beginArray();
+                for (SimRouter.LineUsage line : value.lines) {
+                    out.beginObject();
+                    writeString(out, "id", line.id);
+                    out.name("activeCalls").value(line.activeCalls);
+                    out.name("callsToday").value(line.callsToday);
+                    out.name("secondsToday").value(line.secondsToday);
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+
+    private static class FlowControlMessageAdapter extends WriteOnlyAdapter<FlowControlMessage> {
+        @Override
+        public void write(JsonWriter out, FlowControlMessage value) throws IOException {
+            out.beginObject();
+            writeString(out, "type", value.type);
+            out.name("grant").value(value.grant);
+            out.name("window").value(value.window);
+            out.name("inFlight").value(value.inFlight);
+            if (value.reset) {
+                out.name("reset").value(true);
+            }
+            writeString(out, "commandId", value.commandId);
+            out.endObject();
+        }
+    }
+
+    private static class CallRecordAdapter extends WriteOnlyAdapter<CallRecord> {
+        @Override
+        public void write(JsonWriter out, CallRecord value) throws IOException {
+            out.beginObject();
+            out.name("type").value(CallRecord.TYPE);
+            writeString(out, "callId", value.callId);
+            writeString(out, "phoneNumber", value.phoneNumber);
+            writeString(out, "numberKey", value.numberKey);
+            writeString(out, "direction", value.direction);
+            out.name("duration").value(value.duration);
+            out.name("transitions").beginArray();
+            for (int i = 0; i < value.transitions; i++) {
+                out.beginObject();
+                writeString(out, "status", value.statuses[i]);
+                out.name("timestamp").value(value.timestamps[i]);
+                out.endObject();
+            }
+            out.endArray();
+            writeString(out, "traceId", value.traceId);
+            if (value.spans != null) {
+                out.name("spans").beginArray();
+                for (long span : value.spans) {
+                    out.value(span);
+                }
+                out.endArray();
+            }
+            if (value.samples != null) {
+                out.name("samples").beginArray();
+                for (MetricSeries.Summary summary : value.samples) {
+                    writeSummary(out, summary);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.telefonia.personal;
+
+// Serie temporal de capacidad fija para una métrica del dispositivo (batería, señal, red).
+// Las muestras viven en dos arrays primitivos en anillo (marca de tiempo y valor): añadir
+// una muestra no asigna memoria y, al llenarse, se sobrescribe la más antigua. Para subirla
+// se reduce a cubos con mínimo, máximo y media.
+public final class MetricSeries {
+    public final String name;
+    private final long[] timestamps;
+    private final short[] values;
+    private int head;
+    private int count;
+
+    // Resumen por cubos de un intervalo; count[i] == 0 marca un cubo sin muestras
+    public static final class Summary {
+        public final String metric;
+        public final long from;
+        public final long bucketMs;
+        public final short[] min;
+        public final short[] max;
+        public final short[] avg;
+        public final int[] count;
+
+        Summary(String metric, long from, long bucketMs, int buckets) {
+            this.metric = metric;
+            this.from = from;
+            this.bucketMs = bucketMs;
+            this.min = new short[buckets];
+            this.max = new short[buckets];
+            this.avg = new short[buckets];
+            this.count = new int[buckets];
+        }
+    }
+
+    public MetricSeries(String name, int capacity) {
+        this.name = name;
+        this.timestamps = new long[capacity];
+        this.values = new short[capacity];
+    }
+
+    public synchronized void add(long timestamp, int value) {
+        timestamps[head] = timestamp;
+        values[head] = (short) value;
+        head = (head + 1) % timestamps.length;
+        if (count < timestamps.length) {
+            count++;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // Reducir las muestras de [from, to) a un número fijo de cubos
+    public synchronized Summary downsample(long from, long to, int buckets) {
+        long bucketMs = Math.max(1, (to - from + buckets - 1) / buckets);
+        Summary summary = new Summary(name, from, bucketMs, buckets);
+        long[] sums = new long[buckets];
+
+        int start = (head - count + timestamps.length) % timestamps.length;
+        for (int i = 0; i < count; i++) {
+            int slot = (start + i) % timestamps.length;
+            long timestamp = timestamps[slot];
+            if (timestamp < from || timestamp >= to) {
+                continue;
+            }
+            int bucket = (int) ((timestamp - from) / bucketMs);
+            short value = values[slot];
+            if (summary.count[bucket] == 0) {
+                summary.min[bucket] = value;
+                summary.max[bucket] = value;
+            } else {
+                summary.min[bucket] = (short) Math.min(summary.min[bucket], value);
+                summary.max[bucket] = (short) Math.max(summary.max[bucket], value);
+            }
+            sums[bucket] += value;
+            summary.count[bucket]++;
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (summary.count[bucket] > 0) {
+                summary.avg[bucket] = (short) (sums[bucket] / summary.count[bucket]);
+            }
+        }
+        return summary;
+    }
+}
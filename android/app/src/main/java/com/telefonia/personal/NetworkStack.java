@@ -0,0 +1,141 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.net.SSLSessionCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+
+// Pila de red compartida por todos los clientes HTTP de la aplicación.
+// Aporta una caché DNS persistente y una caché de sesiones TLS en disco (SSLSessionCache),
+// de modo que tras reiniciar el proceso las primeras peticiones reanudan la sesión TLS en
+// lugar de hacer el handshake completo. Todos los clientes comparten pool de conexiones.
+public class NetworkStack {
+    private static final String TAG = "NetworkStack";
+    private static NetworkStack instance;
+
+    private final PersistentDns dns;
+    private final OkHttpClient baseClient;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong handshakeTimeMs = new AtomicLong();
+    private final AtomicLong pooledConnections = new AtomicLong();
+
+    // Constructor privado (Singleton)
+    private NetworkStack(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.dns = new PersistentDns(new File(appContext.getCacheDir(), "dns-cache"));
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .dns(dns)
+            .eventListenerFactory(call -> new StatsListener());
+
+        try {
+            X509TrustManager trustManager = defaultTrustManager();
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] { trustManager }, null);
+            // Persistir tickets y sesiones TLS entre reinicios del proceso
+            SSLSessionCache.install(new SSLSessionCache(new File(appContext.getCacheDir(), "tls-sessions")), sslContext);
+            builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Caché de sesiones TLS no disponible, se usa la configuración por defecto", e);
+        }
+
+        this.baseClient = builder.build();
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized NetworkStack getInstance(Context context) {
+        if (instance == null) {
+            instance = new NetworkStack(context);
+        }
+        return instance;
+    }
+
+    // Builder que comparte DNS, TLS, pool de conexiones y dispatcher con el resto de clientes
+    public OkHttpClient.Builder newClientBuilder() {
+        return baseClient.newBuilder();
+    }
+
+    public OkHttpClient getClient() {
+        return baseClient;
+    }
+
+    public int dnsHitRatePercent() {
+        return dns.hitRatePercent();
+    }
+
+    // Duración media de los handshakes TLS completados (ms); baja cuando se reanudan sesiones
+    public long averageHandshakeMs() {
+        long count = handshakes.get();
+        return count == 0 ? 0 : handshakeTimeMs.get() / count;
+    }
+
+    public String statsSummary() {
+        return dns.statsSummary() +
+               " tls handshakes=" + handshakes.get() +
+               " avgHandshakeMs=" + averageHandshakeMs() +
+               " pooled=" + pooledConnections.get();
+    }
+
+    private static X509TrustManager defaultTrustManager() throws GeneralSecurityException {
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init((KeyStore) null);
+        for (TrustManager manager : factory.getTrustManagers()) {
+            if (manager instanceof X509TrustManager) {
+                return (X509TrustManager) manager;
+            }
+        }
+        throw new GeneralSecurityException("Sin X509TrustManager por defecto");
+    }
+
+    // Mide la duración de los handshakes TLS y cuenta las conexiones reutilizadas
+    private class StatsListener extends EventListener {
+        private long secureConnectStart;
+        private boolean connected;
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            handshakes.incrementAndGet();
+            handshakeTimeMs.addAndGet((System.nanoTime() - secureConnectStart) / 1000000);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (!connected) {
+                pooledConnections.incrementAndGet();
+            }
+        }
+    }
+}
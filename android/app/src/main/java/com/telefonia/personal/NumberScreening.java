@@ -0,0 +1,340 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Índice local de listas de bloqueo y de permitidos para filtrar llamadas entrantes.
+// Los números se guardan normalizados (E.164 como long) en arrays ordenados dentro de un
+// archivo mapeado en memoria, precedidos de un filtro de Bloom: casi todas las consultas
+// terminan en el filtro y el resto en una búsqueda binaria, sin cargar el archivo en el heap.
+// El servidor envía parches versionados (altas y bajas) en lugar de la lista completa.
+public class NumberScreening {
+    private static final String TAG = "NumberScreening";
+    private static NumberScreening instance;
+
+    private static final String SYNC_ENDPOINT = "/api/public/screening-delta";
+    private static final String SYNC_JOB = "screening-sync";
+
+    // Cabecera: magic, nº de hashes, versión (long), palabras del filtro, reservado, bloqueados, permitidos.
+    // Después: filtro de Bloom, bloqueados ordenados y permitidos ordenados (long big-endian).
+    private static final int MAGIC = 0x53435231; // "SCR1"
+    private static final int HEADER_BYTES = 32;
+    private static final int BITS_PER_NUMBER = 10;
+    private static final int HASH_COUNT = 7;
+
+    public enum Verdict {
+        BLOCKED, ALLOWED, UNKNOWN
+    }
+
+    // Vista inmutable del archivo mapeado; se reemplaza entera al aplicar un parche
+    private static final class Index {
+        final ByteBuffer buffer;
+        final long version;
+        final int bloomWords;
+        final int blockCount;
+        final int allowCount;
+        final int blockOffset;
+        final int allowOffset;
+
+        Index(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.version = buffer.getLong(8);
+            this.bloomWords = buffer.getInt(16);
+            this.blockCount = buffer.getInt(24);
+            this.allowCount = buffer.getInt(28);
+            this.blockOffset = HEADER_BYTES + bloomWords * 8;
+            this.allowOffset = blockOffset + blockCount * 8;
+        }
+    }
+
+    private final File file;
+    private final SharedPreferences preferences;
+    private final PhoneNumberNormalizer normalizer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean syncQueued = new AtomicBoolean(false);
+    private volatile Index index;
+
+    // Constructor privado (Singleton)
+    private NumberScreening(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.file = new File(appContext.getFilesDir(), "screening.idx");
+        this.preferences = KeyValueStore.getInstance(appContext);
+        this.normalizer = PhoneNumberNormalizer.getInstance(appContext);
+        this.index = map(file);
+
+        TelemetryScheduler.getInstance(appContext).register(SYNC_JOB, new TelemetryScheduler.Job() {
+            @Override
+            public long intervalMs(TelemetryScheduler.Profile profile) {
+                return profile.statusIntervalMs * 4;
+            }
+
+            @Override
+            public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+                if (conditions.networkClass != DeviceConditions.NETWORK_NONE) {
+                    requestSync();
+                }
+            }
+        });
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized NumberScreening getInstance(Context context) {
+        if (instance == null) {
+            instance = new NumberScreening(context);
+        }
+        return instance;
+    }
+
+    // Clasificar un número; la lista de permitidos tiene prioridad sobre la de bloqueo
+    public Verdict check(String phoneNumber) {
+        Index current = index;
+        long key = toKey(normalizer.normalize(phoneNumber));
+        if (current == null || key <= 0 || !mightContain(current, key)) {
+            return Verdict.UNKNOWN;
+        }
+        if (contains(current.buffer, current.allowOffset, current.allowCount, key)) {
+            return Verdict.ALLOWED;
+        }
+        if (contains(current.buffer, current.blockOffset, current.blockCount, key)) {
+            return Verdict.BLOCKED;
+        }
+        return Verdict.UNKNOWN;
+    }
+
+    // Versión de las listas aplicada localmente
+    public long getVersion() {
+        Index current = index;
+        return current != null ? current.version : 0;
+    }
+
+    // Solicitar parches al servidor; las solicitudes repetidas mientras hay una en cola se agrupan
+    public void requestSync() {
+        if (!syncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            syncQueued.set(false);
+            syncPending();
+        });
+    }
+
+    // Pide y aplica parches hasta alcanzar la versión actual del servidor
+    private void syncPending() {
+        String deviceId = preferences.getString("deviceId", "");
+        if (deviceId.isEmpty()) {
+            return;
+        }
+        try {
+            while (true) {
+                JSONObject body = new JSONObject();
+                body.put("deviceId", deviceId);
+                body.put("version", getVersion());
+                JSONObject patch = RestApiManager.getInstance().postBlocking(SYNC_ENDPOINT, body);
+                long version = patch.optLong("version", 0);
+                if (version <= getVersion()) {
+                    return;
+                }
+                applyPatch(patch, version);
+                if (!patch.optBoolean("hasMore", false)) {
+                    return;
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error al sincronizar listas de filtrado, se reintentará", e);
+        }
+    }
+
+    // Parche: {version, reset, addBlock, removeBlock, addAllow, removeAllow}
+    private void applyPatch(JSONObject patch, long version) throws IOException {
+        Index current = patch.optBoolean("reset", false) ? null : index;
+        long[] block = merge(current != null ? read(current.buffer, current.blockOffset, current.blockCount) : new long[0],
+                keys(patch.optJSONArray("addBlock")), keys(patch.optJSONArray("removeBlock")));
+        long[] allow = merge(current != null ? read(current.buffer, current.allowOffset, current.allowCount) : new long[0],
+                keys(patch.optJSONArray("addAllow")), keys(patch.optJSONArray("removeAllow")));
+        write(version, block, allow);
+        index = map(file);
+        Log.i(TAG, "Listas de filtrado v" + version + ": " + block.length + " bloqueados, " + allow.length + " permitidos");
+    }
+
+    private void write(long version, long[] block, long[] allow) throws IOException {
+        int bloomWords = Math.max(1, (int) (((long) (block.length + allow.length) * BITS_PER_NUMBER + 63) / 64));
+        long[] bloom = new long[bloomWords];
+        for (long key : block) {
+            addToBloom(bloom, key);
+        }
+        for (long key : allow) {
+            addToBloom(bloom, key);
+        }
+
+        long size = HEADER_BYTES + ((long) bloomWords + block.length + allow.length) * 8;
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.delete();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC);
+            out.putInt(HASH_COUNT);
+            out.putLong(version);
+            out.putInt(bloomWords);
+            out.putInt(0);
+            out.putInt(block.length);
+            out.putInt(allow.length);
+            out.asLongBuffer().put(bloom).put(block).put(allow);
+            out.force();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("No se pudo reemplazar el índice de filtrado");
+        }
+    }
+
+    private static Index map(File file) {
+        if (!file.exists() || file.length() < HEADER_BYTES) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // El mapeo sigue siendo válido después de cerrar el canal
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != HASH_COUNT) {
+                return null;
+            }
+            return new Index(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Índice de filtrado no válido", e);
+            return null;
+        }
+    }
+
+    // Filtro de Bloom con doble hash derivado de un único mezclado de 64 bits
+    private static void addToBloom(long[] bloom, long key) {
+        long bits = (long) bloom.length * 64;
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static boolean mightContain(Index index, long key) {
+        long bits = (long) index.bloomWords * 64;
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            long word = index.buffer.getLong(HEADER_BYTES + (int) (bit >>> 6) * 8);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long key) {
+        long z = key + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Búsqueda binaria sobre el array ordenado del archivo mapeado
+    private static boolean contains(ByteBuffer buffer, int offset, int count, long key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = buffer.getLong(offset + mid * 8);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long[] read(ByteBuffer buffer, int offset, int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = buffer.getLong(offset + i * 8);
+        }
+        return values;
+    }
+
+    // Fusiona un array ordenado con altas y bajas (ordenadas) en un nuevo array ordenado sin duplicados
+    private static long[] merge(long[] current, long[] added, long[] removed) {
+        long[] result = new long[current.length + added.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < current.length || j < added.length) {
+            long next;
+            if (j == added.length || (i < current.length && current[i] <= added[j])) {
+                next = current[i++];
+            } else {
+                next = added[j++];
+            }
+            if ((size > 0 && result[size - 1] == next) || Arrays.binarySearch(removed, next) >= 0) {
+                continue;
+            }
+            result[size++] = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // Claves ordenadas de una lista de números del parche (cadenas o enteros)
+    private long[] keys(JSONArray numbers) {
+        if (numbers == null) {
+            return new long[0];
+        }
+        long[] keys = new long[numbers.length()];
+        int size = 0;
+        for (int i = 0; i < numbers.length(); i++) {
+            Object value = numbers.opt(i);
+            long key = value instanceof Number ? ((Number) value).longValue()
+                    : toKey(normalizer.normalize(String.valueOf(value)));
+            if (key > 0) {
+                keys[size++] = key;
+            }
+        }
+        keys = Arrays.copyOf(keys, size);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    // "+34612345678" -> 34612345678; -1 si no es un número E.164
+    private static long toKey(String e164) {
+        if (e164 == null || e164.length() < 2 || e164.charAt(0) != '+' || e164.length() > 16) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 1; i < e164.length(); i++) {
+            char c = e164.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+}
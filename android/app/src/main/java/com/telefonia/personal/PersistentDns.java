@@ -0,0 +1,172 @@
+package com.telefonia.personal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+
+// Caché DNS persistente para OkHttp. Las entradas tienen un TTL; pasado el TTL se siguen
+// sirviendo durante una ventana de "stale-while-revalidate" mientras se resuelven de nuevo
+// en segundo plano. La caché se guarda en disco para que el primer request tras reiniciar
+// el proceso no espere a una resolución DNS. No depende de clases de Android.
+public class PersistentDns implements Dns {
+    private static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    private static final long STALE_WINDOW_MS = 24 * 60 * 60 * 1000;
+
+    private final File file;
+    private final Dns delegate;
+    private final long ttlMs;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    public PersistentDns(File file) {
+        this(file, Dns.SYSTEM, DEFAULT_TTL_MS);
+    }
+
+    public PersistentDns(File file, Dns delegate, long ttlMs) {
+        this.file = file;
+        this.delegate = delegate;
+        this.ttlMs = ttlMs;
+        // El archivo es pequeño: se carga antes de la primera búsqueda
+        load();
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(hostname);
+        if (entry != null) {
+            long age = now - entry.resolvedAt;
+            if (age < ttlMs) {
+                hits.incrementAndGet();
+                return entry.addresses;
+            }
+            if (age < ttlMs + STALE_WINDOW_MS) {
+                staleHits.incrementAndGet();
+                refreshAsync(hostname);
+                return entry.addresses;
+            }
+        }
+        misses.incrementAndGet();
+        return resolve(hostname);
+    }
+
+    // Porcentaje de búsquedas servidas desde la caché (frescas o caducadas)
+    public int hitRatePercent() {
+        long served = hits.get() + staleHits.get();
+        long total = served + misses.get();
+        return total == 0 ? 0 : (int) (served * 100 / total);
+    }
+
+    public String statsSummary() {
+        return "dns hits=" + hits.get() + " stale=" + staleHits.get() + " misses=" + misses.get();
+    }
+
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses = delegate.lookup(hostname);
+        cache.put(hostname, new Entry(addresses, System.currentTimeMillis()));
+        scheduleSave();
+        return addresses;
+    }
+
+    private void refreshAsync(final String hostname) {
+        if (refreshing.putIfAbsent(hostname, Boolean.TRUE) != null) {
+            return;
+        }
+        background.execute(() -> {
+            try {
+                resolve(hostname);
+            } catch (UnknownHostException e) {
+                // Se mantiene la entrada caducada hasta el final de la ventana
+            } finally {
+                refreshing.remove(hostname);
+            }
+        });
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            background.execute(() -> {
+                saveScheduled.set(false);
+                save();
+            });
+        }
+    }
+
+    // Formato por línea: host|resueltoEn|ip1,ip2,...
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length != 3) {
+                    continue;
+                }
+                List<InetAddress> addresses = new ArrayList<>();
+                for (String ip : parts[2].split(",")) {
+                    // Literales IP: no provoca consulta DNS
+                    addresses.add(InetAddress.getByName(ip));
+                }
+                cache.putIfAbsent(parts[0], new Entry(addresses, Long.parseLong(parts[1])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            file.delete();
+        }
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+            for (Map.Entry<String, Entry> item : cache.entrySet()) {
+                StringBuilder line = new StringBuilder(item.getKey())
+                        .append('|').append(item.getValue().resolvedAt).append('|');
+                List<InetAddress> addresses = item.getValue().addresses;
+                for (int i = 0; i < addresses.size(); i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(addresses.get(i).getHostAddress());
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        tmp.renameTo(file);
+    }
+}
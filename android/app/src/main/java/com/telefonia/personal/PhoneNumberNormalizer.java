@@ -0,0 +1,260 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.telephony.TelephonyManager;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Normalización de números de teléfono a E.164 (+<código de país><número nacional>).
+// Los códigos de país se reconocen con un trie de dígitos en arrays primitivos; los números
+// nacionales se completan con las reglas de la región del dispositivo (prefijo internacional,
+// prefijo troncal y longitud nacional). Si la región no está en la tabla, solo se normalizan
+// los números con prefijo internacional ("+" o "00"); los nacionales quedan como dígitos sin
+// código de país, porque no se puede saber cuál les corresponde. Los resultados se memorizan
+// en una LRU, así que un número repetido no recorre el algoritmo ni asigna memoria.
+public class PhoneNumberNormalizer {
+    private static PhoneNumberNormalizer instance;
+
+    private static final int MEMO_CAPACITY = 512;
+    private static final int MAX_DIGITS = 20;
+    // Por debajo de esta longitud se trata como número corto o de servicio (112, 1004...)
+    private static final int MIN_NATIONAL_LENGTH = 6;
+
+    // Región: ISO, código de país, prefijo troncal, prefijo internacional, longitud nacional (0 = variable)
+    private static final String[][] REGIONS = {
+        {"ES", "34", "", "00", "9"},
+        {"MX", "52", "", "00", "10"},
+        {"AR", "54", "0", "00", "10"},
+        {"CO", "57", "", "00", "10"},
+        {"CL", "56", "", "00", "9"},
+        {"PE", "51", "0", "00", "9"},
+        {"VE", "58", "0", "00", "10"},
+        {"EC", "593", "0", "00", "9"},
+        {"UY", "598", "0", "00", "8"},
+        {"PY", "595", "0", "00", "9"},
+        {"BO", "591", "0", "00", "8"},
+        {"BR", "55", "0", "00", "0"},
+        {"PT", "351", "", "00", "9"},
+        {"US", "1", "1", "011", "10"},
+        {"CA", "1", "1", "011", "10"},
+        {"GB", "44", "0", "00", "10"},
+        {"FR", "33", "0", "00", "9"},
+        {"DE", "49", "0", "00", "0"},
+        {"IT", "39", "", "00", "0"},
+    };
+    // Región desconocida: sin código de país propio; "00" es el prefijo internacional recomendado por la UIT
+    private static final String[] UNKNOWN_REGION = {"", "", "", "00", "0"};
+
+    // Códigos de país reconocidos en números internacionales
+    private static final String[] CALLING_CODES = {
+        "1", "7", "20", "27", "30", "31", "32", "33", "34", "36", "39", "40", "41", "43", "44",
+        "45", "46", "47", "48", "49", "51", "52", "53", "54", "55", "56", "57", "58", "60", "61",
+        "62", "63", "64", "65", "66", "81", "82", "84", "86", "90", "91", "92", "93", "94", "95",
+        "98", "212", "213", "216", "218", "221", "233", "234", "254", "351", "352", "353", "354",
+        "355", "356", "357", "358", "359", "370", "371", "372", "373", "374", "375", "376", "380",
+        "381", "385", "386", "420", "421", "501", "502", "503", "504", "505", "506", "507", "509",
+        "591", "592", "593", "594", "595", "596", "597", "598", "599", "852", "886", "966", "971",
+        "972", "974",
+    };
+
+    // Trie de códigos de país: 10 hijos por nodo (0 = sin hijo) y código terminal por nodo
+    private static int[] trieChildren = new int[64 * 10];
+    private static int[] trieCode = new int[64];
+    private static int trieSize = 1;
+
+    static {
+        for (String code : CALLING_CODES) {
+            insert(code);
+        }
+    }
+
+    private final String callingCode;
+    private final String trunkPrefix;
+    private final String internationalPrefix;
+    private final int nationalLength;
+    // Buffers por hilo: dígitos de entrada y salida
+    private final ThreadLocal<char[]> digitsBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[MAX_DIGITS];
+        }
+    };
+    private final ThreadLocal<char[]> outputBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[MAX_DIGITS + 4];
+        }
+    };
+    private final Map<String, String> memo = new LinkedHashMap<String, String>(MEMO_CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMO_CAPACITY;
+        }
+    };
+
+    // Constructor del Singleton; visible en el paquete para las pruebas por región
+    PhoneNumberNormalizer(String regionIso) {
+        String[] region = findRegion(regionIso);
+        this.callingCode = region[1];
+        this.trunkPrefix = region[2];
+        this.internationalPrefix = region[3];
+        this.nationalLength = Integer.parseInt(region[4]);
+    }
+
+    // Obtener instancia (Singleton); la región se toma de la SIM, la red o el idioma del sistema
+    public static synchronized PhoneNumberNormalizer getInstance(Context context) {
+        if (instance == null) {
+            instance = new PhoneNumberNormalizer(detectRegion(context));
+        }
+        return instance;
+    }
+
+    // Clave normalizada de un número; null si el número es null
+    public String normalize(String raw) {
+        if (raw == null || raw.isEmpty()) {
+            return raw;
+        }
+        synchronized (memo) {
+            String cached = memo.get(raw);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String normalized = compute(raw);
+        synchronized (memo) {
+            memo.put(raw, normalized);
+        }
+        return normalized;
+    }
+
+    private String compute(String raw) {
+        char[] digits = digitsBuffer.get();
+        int length = 0;
+        boolean international = false;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (length == MAX_DIGITS) {
+                    return raw;
+                }
+                digits[length++] = c;
+            } else if (c == '+' && length == 0) {
+                international = true;
+            } else if (c == '*' || c == '#' || Character.isLetter(c)) {
+                // Códigos de servicio o números alfanuméricos: se dejan tal cual
+                return raw;
+            }
+            // Espacios, guiones, puntos y paréntesis se ignoran
+        }
+        if (length < MIN_NATIONAL_LENGTH) {
+            return new String(digits, 0, length);
+        }
+
+        int start = 0;
+        if (!international) {
+            if (startsWith(digits, 0, length, internationalPrefix)) {
+                start = internationalPrefix.length();
+                international = true;
+            } else if (nationalLength > 0 && length == callingCode.length() + nationalLength
+                    && startsWith(digits, 0, length, callingCode)) {
+                // Número con código de país pero sin "+"
+                international = true;
+            }
+        }
+
+        if (international && callingCodeLength(digits, start, length) == 0) {
+            // Código de país desconocido: solo dígitos, sin presentarlo como E.164
+            return new String(digits, start, length - start);
+        }
+        if (!international && callingCode.isEmpty()) {
+            // Número nacional de una región desconocida: no se le inventa un código de país
+            return new String(digits, 0, length);
+        }
+
+        char[] out = outputBuffer.get();
+        int size = 0;
+        out[size++] = '+';
+        if (!international) {
+            if (!trunkPrefix.isEmpty() && startsWith(digits, 0, length, trunkPrefix)) {
+                start = trunkPrefix.length();
+            }
+            for (int i = 0; i < callingCode.length(); i++) {
+                out[size++] = callingCode.charAt(i);
+            }
+        }
+        for (int i = start; i < length && size < out.length; i++) {
+            out[size++] = digits[i];
+        }
+        return new String(out, 0, size);
+    }
+
+    // Longitud del código de país más largo que prefija los dígitos, o 0 si no hay ninguno
+    static int callingCodeLength(char[] digits, int start, int length) {
+        int node = 0;
+        int matched = 0;
+        for (int i = start; i < length && i - start < 3; i++) {
+            node = trieChildren[node * 10 + (digits[i] - '0')];
+            if (node == 0) {
+                break;
+            }
+            if (trieCode[node] != 0) {
+                matched = i - start + 1;
+            }
+        }
+        return matched;
+    }
+
+    private static void insert(String code) {
+        int node = 0;
+        for (int i = 0; i < code.length(); i++) {
+            int slot = node * 10 + (code.charAt(i) - '0');
+            if (trieChildren[slot] == 0) {
+                if (trieSize == trieCode.length) {
+                    trieCode = Arrays.copyOf(trieCode, trieSize * 2);
+                    trieChildren = Arrays.copyOf(trieChildren, trieSize * 2 * 10);
+                }
+                trieChildren[slot] = trieSize++;
+            }
+            node = trieChildren[slot];
+        }
+        trieCode[node] = Integer.parseInt(code);
+    }
+
+    private static boolean startsWith(char[] digits, int start, int length, String prefix) {
+        if (prefix.isEmpty() || length - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (digits[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] findRegion(String iso) {
+        for (String[] candidate : REGIONS) {
+            if (candidate[0].equalsIgnoreCase(iso)) {
+                return candidate;
+            }
+        }
+        return UNKNOWN_REGION;
+    }
+
+    private static String detectRegion(Context context) {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager != null) {
+            String iso = telephonyManager.getSimCountryIso();
+            if (iso == null || iso.isEmpty()) {
+                iso = telephonyManager.getNetworkCountryIso();
+            }
+            if (iso != null && !iso.isEmpty()) {
+                return iso.toUpperCase(Locale.ROOT);
+            }
+        }
+        return Locale.getDefault().getCountry();
+    }
+}
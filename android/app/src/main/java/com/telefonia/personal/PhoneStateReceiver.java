@@ -10,14 +10,20 @@ import android.util.Log;
 
 public class PhoneStateReceiver extends BroadcastReceiver {
     private static final String TAG = "PhoneStateReceiver";
+    // El receptor del manifiesto se instancia en cada broadcast (y el proceso puede morir entre
+    // dos): el último estado y el inicio de la llamada se guardan en KeyValueStore
+    private static final String LAST_STATE_KEY = "phone_last_state";
+    private static final String CALL_START_KEY = "phone_call_start";
     private String lastState = TelephonyManager.EXTRA_STATE_IDLE;
     private String lastPhoneNumber = "";
     private long callStartTime = 0;
+    // Margen para asociar una llamada saliente con la marcación iniciada por CallService
+    private static final long PENDING_CALL_WINDOW_MS = 60 * 1000;
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        SharedPreferences preferences = context.getSharedPreferences("TelefoniaPersonal", Context.MODE_PRIVATE);
-        String deviceId = preferences.getString("device_id", "");
+        SharedPreferences preferences = KeyValueStore.getInstance(context);
+        String deviceId = preferences.getString("deviceId", "");
         
         if (deviceId.isEmpty()) {
             return;
@@ -41,9 +47,10 @@ public class PhoneStateReceiver extends BroadcastReceiver {
         
         if (Intent.ACTION_NEW_OUTGOING_CALL.equals(intent.getAction())) {
             String phoneNumber = intent.getStringExtra(Intent.EXTRA_PHONE_NUMBER);
-            Log.d(TAG, "Llamada saliente a: " + phoneNumber);
+            EventLog.record(EventLog.OUTGOING_CALL,
+                    EventLog.numberHash(PhoneNumberNormalizer.getInstance(context).normalize(phoneNumber)));
             lastPhoneNumber = phoneNumber;
-            notifyCallStarted(context, phoneNumber, "outgoing");
+            notifyCallStarted(context, phoneNumber, "outgoing", NumberScreening.Verdict.UNKNOWN);
             return;
         }
         
@@ -52,22 +59,29 @@ public class PhoneStateReceiver extends BroadcastReceiver {
         }
         
         String phoneNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
+        SharedPreferences preferences = KeyValueStore.getInstance(context);
+        lastState = preferences.getString(LAST_STATE_KEY, TelephonyManager.EXTRA_STATE_IDLE);
+        callStartTime = preferences.getLong(CALL_START_KEY, 0);
         
         switch (state) {
             case TelephonyManager.EXTRA_STATE_RINGING:
                 if (phoneNumber != null) {
-                    Log.d(TAG, "Llamada entrante de: " + phoneNumber);
+                    EventLog.record(EventLog.INCOMING_CALL,
+                            EventLog.numberHash(PhoneNumberNormalizer.getInstance(context).normalize(phoneNumber)));
                     lastPhoneNumber = phoneNumber;
-                    notifyCallStarted(context, phoneNumber, "incoming");
+                    NumberScreening.Verdict verdict = NumberScreening.getInstance(context).check(phoneNumber);
+                    notifyCallStarted(context, phoneNumber, "incoming", verdict);
                 }
                 break;
                 
             case TelephonyManager.EXTRA_STATE_OFFHOOK:
                 if (lastState.equals(TelephonyManager.EXTRA_STATE_RINGING)) {
-                    Log.d(TAG, "Llamada contestada");
+                    EventLog.record(EventLog.PHONE_STATE, 1);
                     notifyCallAnswered(context);
                 }
-                callStartTime = System.currentTimeMillis();
+                if (!lastState.equals(TelephonyManager.EXTRA_STATE_OFFHOOK)) {
+                    callStartTime = System.currentTimeMillis();
+                }
                 break;
                 
             case TelephonyManager.EXTRA_STATE_IDLE:
@@ -76,7 +90,7 @@ public class PhoneStateReceiver extends BroadcastReceiver {
                     if (callStartTime > 0) {
                         duration = (int) ((System.currentTimeMillis() - callStartTime) / 1000);
                     }
-                    Log.d(TAG, "Llamada finalizada, duración: " + duration + " segundos");
+                    EventLog.record(EventLog.PHONE_STATE, 2, duration);
                     notifyCallEnded(context, duration);
                     callStartTime = 0;
                 }
@@ -84,25 +98,46 @@ public class PhoneStateReceiver extends BroadcastReceiver {
         }
         
         lastState = state;
+        preferences.edit()
+            .putString(LAST_STATE_KEY, lastState)
+            .putLong(CALL_START_KEY, callStartTime)
+            .apply();
     }
     
-    private void notifyCallStarted(Context context, String phoneNumber, String direction) {
-        String callId = java.util.UUID.randomUUID().toString();
-        SharedPreferences preferences = context.getSharedPreferences("TelefoniaPersonal", Context.MODE_PRIVATE);
-        preferences.edit().putString("current_call_id", callId).apply();
-        preferences.edit().putString("current_phone_number", phoneNumber).apply();
-        preferences.edit().putString("current_call_direction", direction).apply();
+    private void notifyCallStarted(Context context, String phoneNumber, String direction, NumberScreening.Verdict verdict) {
+        SharedPreferences preferences = KeyValueStore.getInstance(context);
+        String callId = "outgoing".equals(direction) ? takePendingCallId(preferences) : null;
+        if (callId == null) {
+            callId = java.util.UUID.randomUUID().toString();
+        }
+        preferences.edit()
+            .putString("current_call_id", callId)
+            .putString("current_phone_number", phoneNumber)
+            .putString("current_call_direction", direction)
+            .apply();
         
         Intent serviceIntent = new Intent(context, CallService.class);
         serviceIntent.setAction("com.telefonia.personal.CALL_STARTED");
         serviceIntent.putExtra("callId", callId);
         serviceIntent.putExtra("phoneNumber", phoneNumber);
         serviceIntent.putExtra("direction", direction);
+        serviceIntent.putExtra("screening", verdict.name());
         startService(context, serviceIntent);
     }
     
+    // callId de una marcación reciente de CallService, para enlazar comando y llamada
+    private String takePendingCallId(SharedPreferences preferences) {
+        String pending = preferences.getString("pending_call_id", null);
+        long pendingAt = preferences.getLong("pending_call_at", 0);
+        if (pending == null) {
+            return null;
+        }
+        preferences.edit().remove("pending_call_id").remove("pending_call_at").apply();
+        return System.currentTimeMillis() - pendingAt <= PENDING_CALL_WINDOW_MS ? pending : null;
+    }
+    
     private void notifyCallAnswered(Context context) {
-        SharedPreferences preferences = context.getSharedPreferences("TelefoniaPersonal", Context.MODE_PRIVATE);
+        SharedPreferences preferences = KeyValueStore.getInstance(context);
         String callId = preferences.getString("current_call_id", "");
         
         if (!callId.isEmpty()) {
@@ -114,7 +149,7 @@ public class PhoneStateReceiver extends BroadcastReceiver {
     }
     
     private void notifyCallEnded(Context context, int duration) {
-        SharedPreferences preferences = context.getSharedPreferences("TelefoniaPersonal", Context.MODE_PRIVATE);
+        SharedPreferences preferences = KeyValueStore.getInstance(context);
         String callId = preferences.getString("current_call_id", "");
         
         if (!callId.isEmpty()) {
@@ -0,0 +1,134 @@
+package com.telefonia.personal;
+
+import android.os.SystemClock;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+// Limitador de peticiones por endpoint con cubos de tokens.
+// Cada endpoint tiene su propio cubo; además se respetan las señales del servidor:
+// Retry-After en 429/503 bloquea el endpoint hasta la hora indicada más un jitter que crece con
+// los bloqueos seguidos (así la flota no vuelve a la vez en el instante indicado), y las
+// cabeceras RateLimit-Remaining / RateLimit-Reset recortan el cubo al presupuesto que queda.
+// Los reintentos usan espera exponencial con jitter completo para que los dispositivos
+// no vuelvan a la vez tras una sobrecarga.
+public class RateLimiter {
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final double DEFAULT_REFILL_PER_SECOND = 1.0;
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_MAX_MS = 30 * 1000;
+    // Si el servidor no indica Retry-After en un 429/503 se bloquea este tiempo
+    private static final long DEFAULT_BLOCK_MS = 5000;
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Random random = new Random();
+
+    private static final class Bucket {
+        double tokens = DEFAULT_CAPACITY;
+        long lastRefill = SystemClock.elapsedRealtime();
+        long blockedUntil;
+        // 429/503 seguidos sin una respuesta correcta entre medias
+        int consecutiveBlocks;
+        // Presupuesto anunciado por el servidor hasta budgetResetAt (-1 = sin presupuesto)
+        int budget = -1;
+        long budgetResetAt;
+
+        void refill(long now) {
+            tokens = Math.min(DEFAULT_CAPACITY, tokens + (now - lastRefill) * DEFAULT_REFILL_PER_SECOND / 1000);
+            lastRefill = now;
+            if (budget >= 0 && now >= budgetResetAt) {
+                budget = -1;
+            }
+        }
+    }
+
+    // Reservar un envío: devuelve 0 si se puede enviar ya (consume un token) o los ms a esperar
+    public synchronized long reserve(String endpoint) {
+        long now = SystemClock.elapsedRealtime();
+        Bucket bucket = bucket(endpoint);
+        bucket.refill(now);
+        if (now < bucket.blockedUntil) {
+            return bucket.blockedUntil - now;
+        }
+        if (bucket.budget == 0) {
+            return bucket.budgetResetAt - now;
+        }
+        if (bucket.tokens < 1) {
+            return (long) Math.ceil((1 - bucket.tokens) * 1000 / DEFAULT_REFILL_PER_SECOND);
+        }
+        bucket.tokens -= 1;
+        if (bucket.budget > 0) {
+            bucket.budget--;
+        }
+        return 0;
+    }
+
+    // Registrar la respuesta del servidor: Retry-After y presupuesto restante
+    public synchronized void onResponse(String endpoint, int code, String retryAfter,
+                                        String remaining, String reset) {
+        long now = SystemClock.elapsedRealtime();
+        Bucket bucket = bucket(endpoint);
+        if (code == 429 || code == 503) {
+            long wait = parseRetryAfter(retryAfter);
+            bucket.blockedUntil = now + (wait >= 0 ? wait : DEFAULT_BLOCK_MS) + backoffMs(bucket.consecutiveBlocks);
+            bucket.consecutiveBlocks++;
+            bucket.tokens = 0;
+        } else if (code < 400) {
+            bucket.consecutiveBlocks = 0;
+        }
+        if (remaining != null && reset != null) {
+            try {
+                bucket.budget = Math.max(0, Integer.parseInt(remaining.trim()));
+                bucket.budgetResetAt = now + Long.parseLong(reset.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                bucket.budget = -1;
+            }
+        }
+    }
+
+    // Espera que impone el servidor sobre un endpoint (0 si no está bloqueado)
+    public synchronized long blockedForMs(String endpoint) {
+        Bucket bucket = buckets.get(endpoint);
+        return bucket == null ? 0 : Math.max(0, bucket.blockedUntil - SystemClock.elapsedRealtime());
+    }
+
+    // Espera antes del reintento número "attempt" (0, 1, 2...): exponencial con jitter completo
+    public long backoffMs(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt, 5));
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    private Bucket bucket(String endpoint) {
+        Bucket bucket = buckets.get(endpoint);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(endpoint, bucket);
+        }
+        return bucket;
+    }
+
+    // Retry-After en segundos o como fecha HTTP; -1 si no viene o no es válido
+    private static long parseRetryAfter(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            try {
+                Date date = format.parse(value.trim());
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (ParseException ignored) {
+                return -1;
+            }
+        }
+    }
+}
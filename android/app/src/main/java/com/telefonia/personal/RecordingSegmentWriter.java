@@ -0,0 +1,160 @@
+package com.telefonia.personal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+// Escribe el audio capturado en archivos de segmento rotativos de tamaño fijo.
+// Mientras se escribe, el segmento lleva la extensión ".part"; al cerrarse se renombra
+// a ".pcm" y queda listo para subirse. No depende de clases de Android.
+public class RecordingSegmentWriter implements Closeable {
+    public static final String SEGMENT_EXTENSION = ".pcm";
+    public static final String PARTIAL_EXTENSION = ".part";
+
+    private final File directory;
+    private final String recordingId;
+    private final long maxSegmentBytes;
+    private final SegmentListener listener;
+
+    private RandomAccessFile currentFile;
+    private FileChannel currentChannel;
+    private File currentPartial;
+    private int segmentIndex = -1;
+    private long segmentBytes = 0;
+
+    public RecordingSegmentWriter(File directory, String recordingId, long maxSegmentBytes, SegmentListener listener) {
+        this.directory = directory;
+        this.recordingId = recordingId;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.listener = listener;
+    }
+
+    // Escribe el contenido restante del buffer, rotando de segmento cuando se llena
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (currentChannel == null) {
+                openNextSegment();
+            }
+
+            int originalLimit = buffer.limit();
+            long capacity = maxSegmentBytes - segmentBytes;
+            if (buffer.remaining() > capacity) {
+                buffer.limit(buffer.position() + (int) capacity);
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    segmentBytes += currentChannel.write(buffer);
+                }
+            } finally {
+                buffer.limit(originalLimit);
+            }
+
+            if (segmentBytes >= maxSegmentBytes) {
+                closeCurrentSegment();
+            }
+        }
+    }
+
+    // Cierra el segmento en curso (si lo hay) y lo publica
+    @Override
+    public void close() throws IOException {
+        closeCurrentSegment();
+    }
+
+    // Recupera un segmento parcial que quedó a medias (el proceso murió grabando): si tiene
+    // audio se publica con su nombre final y se devuelve; si está vacío se borra y devuelve null
+    public static File recoverPartial(File partial) {
+        String name = partial.getName();
+        if (!name.endsWith(PARTIAL_EXTENSION)) {
+            return null;
+        }
+        if (partial.length() == 0) {
+            partial.delete();
+            return null;
+        }
+        File segment = new File(partial.getParentFile(), name.substring(0, name.length() - PARTIAL_EXTENSION.length()));
+        if (segment.exists() || !partial.renameTo(segment)) {
+            // No se puede publicar sin pisar otro segmento: se descarta
+            partial.delete();
+            return null;
+        }
+        return segment;
+    }
+
+    // Nombre del archivo final de un segmento
+    public static String segmentName(String recordingId, int index) {
+        return recordingId + "_" + String.format(Locale.US, "%04d", index) + SEGMENT_EXTENSION;
+    }
+
+    // Extrae el id de grabación del nombre de un segmento, o null si no es un segmento
+    public static String recordingIdOf(File segment) {
+        String name = segment.getName();
+        int separator = name.lastIndexOf('_');
+        if (!name.endsWith(SEGMENT_EXTENSION) || separator <= 0) {
+            return null;
+        }
+        return name.substring(0, separator);
+    }
+
+    // Extrae el índice de segmento del nombre de archivo, o -1 si no es válido
+    public static int segmentIndexOf(File segment) {
+        String name = segment.getName();
+        int separator = name.lastIndexOf('_');
+        if (!name.endsWith(SEGMENT_EXTENSION) || separator <= 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(separator + 1, name.length() - SEGMENT_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        segmentBytes = 0;
+        currentPartial = new File(directory, segmentName(recordingId, segmentIndex) + PARTIAL_EXTENSION);
+        currentFile = new RandomAccessFile(currentPartial, "rw");
+        currentFile.setLength(0);
+        currentChannel = currentFile.getChannel();
+    }
+
+    private void closeCurrentSegment() throws IOException {
+        if (currentChannel == null) {
+            return;
+        }
+        File partial = currentPartial;
+        boolean empty = segmentBytes == 0;
+        try {
+            currentChannel.force(false);
+        } finally {
+            currentFile.close();
+            currentChannel = null;
+            currentFile = null;
+            currentPartial = null;
+        }
+
+        if (empty) {
+            partial.delete();
+            segmentIndex--;
+            return;
+        }
+
+        File segment = new File(directory, segmentName(recordingId, segmentIndex));
+        if (!partial.renameTo(segment)) {
+            throw new IOException("No se pudo publicar el segmento " + segment.getName());
+        }
+        if (listener != null) {
+            listener.onSegmentClosed(segment, segmentIndex);
+        }
+    }
+
+    // Interfaz para recibir los segmentos completos
+    public interface SegmentListener {
+        void onSegmentClosed(File segment, int index);
+    }
+}
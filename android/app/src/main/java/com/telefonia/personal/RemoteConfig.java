@@ -0,0 +1,246 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Configuración de ejecución remota y versionada. El servidor la entrega al conectar
+// (/api/public/device-config), en la respuesta del polling o con un comando CONFIG por
+// WebSocket. Solo se aplica un documento con versión mayor que la activa; se guarda en
+// KeyValueStore y se publica en EventBus.CONFIG para que cada componente la aplique en
+// caliente. Los valores ausentes o fuera de rango conservan el valor compilado.
+//
+// Documento:
+// {"version": 7,
+//  "profiles": {"BALANCED": {"pollIntervalMs": 20000, "statusIntervalMs": 300000, "batchFlushSize": 25}},
+//  "http": {"connectTimeoutMs": 10000, "readTimeoutMs": 30000, "writeTimeoutMs": 30000},
+//  "reconnectIntervalMs": 5000, "callLogBatchSize": 200,
+//  "compression": false, "transportMode": "auto",
+//  "sampling": {"batteryMs": 60000, "signalMs": 10000, "networkMs": 30000},
+//  "routing": {"policy": "least_used", "maxCallsPerLine": 1, "prefixRules": [{"prefix": "+3491", "line": 1}]}}
+public class RemoteConfig {
+    private static final String TAG = "RemoteConfig";
+    private static RemoteConfig instance;
+
+    private static final String PREF_KEY = "remote_config";
+    private static final String FETCH_ENDPOINT = "/api/public/device-config";
+
+    // Modos de transporte
+    public static final String TRANSPORT_AUTO = "auto";
+    public static final String TRANSPORT_WEBSOCKET = "websocket";
+    public static final String TRANSPORT_REST = "rest";
+
+    // Valores de una versión concreta; inmutables, se sustituyen enteros al cambiar
+    public static final class Values {
+        public final int version;
+        public final long connectTimeoutMs;
+        public final long readTimeoutMs;
+        public final long writeTimeoutMs;
+        public final long reconnectIntervalMs;
+        public final int callLogBatchSize;
+        public final boolean compression;
+        public final String transportMode;
+        // Cadencia de muestreo de las series de DeviceSamples
+        public final long batterySampleMs;
+        public final long signalSampleMs;
+        public final long networkSampleMs;
+        // Reparto de llamadas entre SIM (ver SimRouter); reglas en paralelo prefijo -> línea
+        public final String routingPolicy;
+        public final int maxCallsPerLine;
+        public final String[] routingPrefixes;
+        public final int[] routingLines;
+        // Por perfil (ordinal): 0 = el valor del perfil
+        private final long[] pollIntervalMs;
+        private final long[] statusIntervalMs;
+        private final int[] batchFlushSize;
+
+        Values(JSONObject doc) {
+            int profiles = TelemetryScheduler.Profile.values().length;
+            pollIntervalMs = new long[profiles];
+            statusIntervalMs = new long[profiles];
+            batchFlushSize = new int[profiles];
+
+            version = doc.optInt("version", 0);
+            JSONObject http = doc.optJSONObject("http");
+            if (http == null) {
+                http = new JSONObject();
+            }
+            connectTimeoutMs = bounded(http.optLong("connectTimeoutMs"), 1000, 60 * 1000, 10 * 1000);
+            readTimeoutMs = bounded(http.optLong("readTimeoutMs"), 1000, 5 * 60 * 1000, 30 * 1000);
+            writeTimeoutMs = bounded(http.optLong("writeTimeoutMs"), 1000, 5 * 60 * 1000, 30 * 1000);
+            reconnectIntervalMs = bounded(doc.optLong("reconnectIntervalMs"), 1000, 10 * 60 * 1000, 5000);
+            callLogBatchSize = (int) bounded(doc.optLong("callLogBatchSize"), 10, 1000, 200);
+            compression = doc.optBoolean("compression", false);
+            String mode = doc.optString("transportMode", TRANSPORT_AUTO);
+            transportMode = TRANSPORT_WEBSOCKET.equals(mode) || TRANSPORT_REST.equals(mode) ? mode : TRANSPORT_AUTO;
+
+            JSONObject sampling = doc.optJSONObject("sampling");
+            if (sampling == null) {
+                sampling = new JSONObject();
+            }
+            batterySampleMs = bounded(sampling.optLong("batteryMs"), 1000, 60 * 60 * 1000, 60 * 1000);
+            signalSampleMs = bounded(sampling.optLong("signalMs"), 1000, 60 * 60 * 1000, 10 * 1000);
+            networkSampleMs = bounded(sampling.optLong("networkMs"), 1000, 60 * 60 * 1000, 30 * 1000);
+
+            JSONObject routing = doc.optJSONObject("routing");
+            if (routing == null) {
+                routing = new JSONObject();
+            }
+            String policy = routing.optString("policy", SimRouter.POLICY_DEFAULT);
+            routingPolicy = SimRouter.POLICY_ROUND_ROBIN.equals(policy) || SimRouter.POLICY_LEAST_USED.equals(policy) ?
+                    policy : SimRouter.POLICY_DEFAULT;
+            maxCallsPerLine = (int) bounded(routing.optLong("maxCallsPerLine"), 1, 8, 1);
+            JSONArray rules = routing.optJSONArray("prefixRules");
+            int ruleCount = rules != null ? rules.length() : 0;
+            String[] prefixes = new String[ruleCount];
+            int[] lines = new int[ruleCount];
+            int valid = 0;
+            for (int i = 0; i < ruleCount; i++) {
+                JSONObject rule = rules.optJSONObject(i);
+                String prefix = rule != null ? rule.optString("prefix", "") : "";
+                int line = rule != null ? rule.optInt("line", -1) : -1;
+                if (!prefix.isEmpty() && line >= 0) {
+                    prefixes[valid] = prefix;
+                    lines[valid] = line;
+                    valid++;
+                }
+            }
+            routingPrefixes = Arrays.copyOf(prefixes, valid);
+            routingLines = Arrays.copyOf(lines, valid);
+
+            JSONObject overrides = doc.optJSONObject("profiles");
+            if (overrides != null) {
+                for (TelemetryScheduler.Profile profile : TelemetryScheduler.Profile.values()) {
+                    JSONObject item = overrides.optJSONObject(profile.name());
+                    if (item != null) {
+                        int i = profile.ordinal();
+                        pollIntervalMs[i] = bounded(item.optLong("pollIntervalMs"), 1000, 60 * 60 * 1000, 0);
+                        statusIntervalMs[i] = bounded(item.optLong("statusIntervalMs"), 10 * 1000, 24 * 60 * 60 * 1000, 0);
+                        batchFlushSize[i] = (int) bounded(item.optLong("batchFlushSize"), 1, 1000, 0);
+                    }
+                }
+            }
+        }
+
+        public long pollIntervalMs(TelemetryScheduler.Profile profile) {
+            long value = pollIntervalMs[profile.ordinal()];
+            return value > 0 ? value : profile.pollIntervalMs;
+        }
+
+        public long statusIntervalMs(TelemetryScheduler.Profile profile) {
+            long value = statusIntervalMs[profile.ordinal()];
+            return value > 0 ? value : profile.statusIntervalMs;
+        }
+
+        public int batchFlushSize(TelemetryScheduler.Profile profile) {
+            int value = batchFlushSize[profile.ordinal()];
+            return value > 0 ? value : profile.batchFlushSize;
+        }
+
+        public boolean allowsWebSocket() {
+            return !TRANSPORT_REST.equals(transportMode);
+        }
+
+        public boolean allowsRest() {
+            return !TRANSPORT_WEBSOCKET.equals(transportMode);
+        }
+
+        private static long bounded(long value, long min, long max, long fallback) {
+            return value >= min && value <= max ? value : fallback;
+        }
+    }
+
+    private final SharedPreferences preferences;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile Values values;
+
+    // Constructor privado (Singleton)
+    private RemoteConfig(Context context) {
+        this.preferences = KeyValueStore.getInstance(context.getApplicationContext());
+        this.values = load();
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized RemoteConfig getInstance(Context context) {
+        if (instance == null) {
+            instance = new RemoteConfig(context);
+        }
+        return instance;
+    }
+
+    // Valores activos; la lectura es una sola referencia volátil
+    public Values get() {
+        return values;
+    }
+
+    public int getVersion() {
+        return values.version;
+    }
+
+    private Values load() {
+        String stored = preferences.getString(PREF_KEY, null);
+        if (stored != null) {
+            try {
+                return new Values(new JSONObject(stored));
+            } catch (JSONException e) {
+                Log.w(TAG, "Configuración guardada no válida, se usan los valores por defecto", e);
+            }
+        }
+        return new Values(new JSONObject());
+    }
+
+    // Aplicar un documento recibido (texto JSON); devuelve true si cambió la versión activa
+    public boolean update(String json) {
+        if (json == null || json.isEmpty()) {
+            return false;
+        }
+        try {
+            return update(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.w(TAG, "Documento de configuración no válido", e);
+            return false;
+        }
+    }
+
+    public boolean update(JSONObject doc) {
+        if (doc == null) {
+            return false;
+        }
+        Values next;
+        synchronized (this) {
+            if (doc.optInt("version", 0) <= values.version) {
+                return false;
+            }
+            next = new Values(doc);
+            values = next;
+            preferences.edit().putString(PREF_KEY, doc.toString()).apply();
+        }
+        Log.i(TAG, "Configuración remota v" + next.version + " aplicada");
+        EventBus.publish(EventBus.CONFIG, next);
+        return true;
+    }
+
+    // Pedir la configuración al servidor si hay una versión más reciente que la activa
+    public void fetch() {
+        executor.execute(() -> {
+            try {
+                JSONObject body = new JSONObject();
+                body.put("deviceId", preferences.getString("deviceId", ""));
+                body.put("configVersion", values.version);
+                JSONObject response = RestApiManager.getInstance().postBlocking(FETCH_ENDPOINT, body);
+                update(response.optJSONObject("config"));
+            } catch (IOException | JSONException e) {
+                Log.w(TAG, "No se pudo obtener la configuración remota: " + e.getMessage());
+            }
+        });
+    }
+}
@@ -1,16 +1,28 @@
 package com.telefonia.personal;
 
+import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -25,16 +37,60 @@ public class RestApiManager {
     private static RestApiManager instance;
     
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    private static final int POLLING_INTERVAL_MS = 5000; // 5 segundos
+    private static final MediaType GZIP = MediaType.get("application/gzip");
+    private static final String POLL_JOB = "rest-poll";
+    private static final String POLL_ENDPOINT = "/api/public/device-status";
+    private static final int MAX_RETRIES = 3;
+    // Más allá de esta espera local la petición falla en lugar de quedar en cola
+    private static final long MAX_QUEUED_DELAY_MS = 2 * 60 * 1000;
+    // Con la compresión activada, solo se comprimen los cuerpos a partir de este tamaño
+    private static final int COMPRESSION_MIN_BYTES = 1024;
+    // Solo las peticiones con cuerpo hasta este tamaño (ya comprimido) cuentan como medida de RTT
+    private static final long RTT_MAX_BODY_BYTES = 4 * 1024;
+    // Endpoints que el servidor puede recibir repetidos sin efectos adicionales
+    private static final Set<String> IDEMPOTENT_ENDPOINTS = new HashSet<>(Arrays.asList(
+        "/api/public/device-status",
+        "/api/public/device-command-ack",
+        "/api/public/device-command-executed",
+        "/api/public/device-call-stats"
+    ));
     
-    private OkHttpClient client;
+    private volatile OkHttpClient client;
     private String serverUrl;
     private String deviceId;
-    private boolean isPolling = false;
-    private List<RestApiListener> listeners = new ArrayList<>();
+    private volatile boolean isPolling = false;
+    private SessionStore sessionStore;
+    private CommandPipeline commandPipeline;
+    private TelemetryScheduler scheduler;
+    private EndpointSelector endpointSelector;
+    private ClockSync clockSync;
+    private NetworkStack networkStack;
+    private RemoteConfig remoteConfig;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor();
     
-    private Handler pollingHandler = new Handler(Looper.getMainLooper());
-    private Runnable pollingRunnable;
+    // Polling condicional: ETag de la última respuesta con contenido y cuerpo de la petición,
+    // que solo se reconstruye si cambia la secuencia confirmada o la versión de configuración
+    private volatile String pollEtag;
+    private String pollBody;
+    private long pollBodySequence = -1;
+    private int pollBodyConfigVersion = -1;
+    
+    // El intervalo de polling lo decide el perfil del planificador (carga, batería, red)
+    private final TelemetryScheduler.Job pollingJob = new TelemetryScheduler.Job() {
+        @Override
+        public long intervalMs(TelemetryScheduler.Profile profile) {
+            return remoteConfig != null ? remoteConfig.get().pollIntervalMs(profile) : profile.pollIntervalMs;
+        }
+        
+        @Override
+        public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+            // En modo solo WebSocket el polling queda en pausa sin perder la sesión
+            if (isPolling && (remoteConfig == null || remoteConfig.get().allowsRest())) {
+                pollCommands();
+            }
+        }
+    };
     
     // Constructor privado (Singleton)
     private RestApiManager() {
@@ -43,16 +99,18 @@ public class RestApiManager {
             .readTimeout(30, TimeUnit.SECONDS)
             .writeTimeout(30, TimeUnit.SECONDS)
             .build();
-            
-        pollingRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (isPolling) {
-                    pollCommands();
-                    pollingHandler.postDelayed(this, POLLING_INTERVAL_MS);
-                }
+        EventBus.subscribe(EventBus.CONFIG, EventBus.DIRECT, this::applyConfig);
+        // En modo "rest" no hay WebSocket: los eventos de llamada y la telemetría van por aquí
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, event -> {
+            if (restOnly()) {
+                sendCallStatus(event);
             }
-        };
+        });
+        EventBus.subscribe(EventBus.TELEMETRY, EventBus.DIRECT, status -> {
+            if (restOnly()) {
+                sendDeviceStatus(status);
+            }
+        });
     }
     
     // Obtener instancia (Singleton)
@@ -64,13 +122,141 @@ public class RestApiManager {
     }
     
     // Inicializar con configuración
-    public void initialize(String serverUrl, String deviceId) {
+    public void initialize(Context context, String serverUrl, String deviceId) {
         this.serverUrl = serverUrl;
         this.deviceId = deviceId;
+        // El cuerpo y el ETag del polling pertenecen al deviceId anterior
+        synchronized (this) {
+            pollBody = null;
+            pollEtag = null;
+        }
+        // Cliente compartido con caché DNS y de sesiones TLS persistentes
+        this.networkStack = NetworkStack.getInstance(context);
+        this.remoteConfig = RemoteConfig.getInstance(context);
+        this.client = configuredClient(remoteConfig.get());
+        // La cola de comandos se suscribe al bus y arranca su propio hilo: una sola por proceso
+        // aunque se vuelva a inicializar (reemparejamiento, cambio de servidor)
+        if (commandPipeline == null) {
+            this.sessionStore = new SessionStore(context);
+            this.commandPipeline = new CommandPipeline(sessionStore, CommandScheduler.getInstance(context));
+            // Los comandos programados vuelven por esta cola al vencer
+            CommandScheduler.getInstance(context).attach(commandPipeline);
+        }
+        this.scheduler = TelemetryScheduler.getInstance(context);
+        this.endpointSelector = EndpointSelector.getInstance(context);
+        this.clockSync = ClockSync.getInstance(context);
+    }
+    
+    // Nuevos timeouts de la configuración remota; las llamadas en curso terminan con el cliente
+    // anterior y el nuevo comparte pool de conexiones y dispatcher con él
+    private void applyConfig(RemoteConfig.Values values) {
+        if (networkStack != null) {
+            client = configuredClient(values);
+        }
+    }
+    
+    // El WebSocket está desactivado por la configuración remota y REST es el único transporte
+    private boolean restOnly() {
+        return remoteConfig != null && !remoteConfig.get().allowsWebSocket();
+    }
+    
+    private OkHttpClient configuredClient(RemoteConfig.Values values) {
+        return networkStack.newClientBuilder()
+            .connectTimeout(values.connectTimeoutMs, TimeUnit.MILLISECONDS)
+            .readTimeout(values.readTimeoutMs, TimeUnit.MILLISECONDS)
+            .writeTimeout(values.writeTimeoutMs, TimeUnit.MILLISECONDS)
+            .build();
+    }
+    
+    // URL base del servidor: el endpoint elegido por latencia o, si no hay lista, la configurada
+    private String baseUrl() {
+        if (endpointSelector != null) {
+            String selected = endpointSelector.current();
+            if (!selected.isEmpty()) {
+                return selected;
+            }
+        }
+        return serverUrl;
+    }
+    
+    private void reportEndpointResult(String base, boolean success, long latencyMs) {
+        if (endpointSelector == null) {
+            return;
+        }
+        if (success) {
+            endpointSelector.reportSuccess(base, latencyMs);
+        } else {
+            endpointSelector.reportFailure(base);
+        }
+    }
+
+    // RTT de una respuesta: del envío de la petición a la llegada de sus cabeceras, sin la
+    // lectura del cuerpo. Una petición con cuerpo grande incluye su subida y no sirve (-1)
+    private static long rttOf(Response response) {
+        RequestBody body = response.request().body();
+        try {
+            if (body != null && body.contentLength() > RTT_MAX_BODY_BYTES) {
+                return -1;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return response.receivedResponseAtMillis() - response.sentRequestAtMillis();
     }
     
-    // Iniciar conexión REST
+    // Iniciar conexión REST: reanuda la sesión guardada si existe, si no hace el handshake completo
     public void connect() {
+        if (sessionStore != null && sessionStore.hasSession()) {
+            resumeSession();
+        } else {
+            fullConnect();
+        }
+    }
+    
+    // Reanudar sesión: una sola petición pequeña que devuelve solo los comandos no confirmados
+    private void resumeSession() {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("deviceId", deviceId);
+            body.put("sessionToken", sessionStore.getToken());
+            body.put("lastSequence", sessionStore.getLastSequence());
+            
+            post("/api/public/device-resume", body, new RestApiCallback() {
+                @Override
+                public void onSuccess(JSONObject response) {
+                    if (!response.optBoolean("resumed", false)) {
+                        Log.i(TAG, "Sesión no reanudable, handshake completo");
+                        sessionStore.clear();
+                        fullConnect();
+                        return;
+                    }
+                    onConnected(response, "Sesión reanudada vía REST API");
+                }
+                
+                @Override
+                public void onFailure(String error) {
+                    onFailure(0, error);
+                }
+                
+                @Override
+                public void onFailure(int code, String error) {
+                    // Un token caducado o desconocido obliga a repetir el handshake
+                    if (code == 401 || code == 404 || code == 410) {
+                        sessionStore.clear();
+                        fullConnect();
+                    } else {
+                        notifyConnectionStatus(false, "Error al reanudar sesión: " + error);
+                    }
+                }
+            });
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo de reanudación", e);
+            fullConnect();
+        }
+    }
+    
+    // Handshake completo con la información del dispositivo
+    private void fullConnect() {
         try {
             // Enviar estado inicial del dispositivo
             JSONObject body = new JSONObject();
@@ -89,20 +275,7 @@ public class RestApiManager {
             post("/api/public/device-connect", body, new RestApiCallback() {
                 @Override
                 public void onSuccess(JSONObject response) {
-                    notifyConnectionStatus(true, "Conectado vía REST API");
-                    
-                    // Iniciar polling de comandos
-                    startPolling();
-                    
-                    // Procesar comandos pendientes si los hay
-                    try {
-                        if (response.has("pendingCommands")) {
-                            JSONObject pendingCommands = response.getJSONObject("pendingCommands");
-                            processPendingCommands(pendingCommands);
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Error al procesar comandos pendientes", e);
-                    }
+                    onConnected(response, "Conectado vía REST API");
                 }
                 
                 @Override
@@ -116,64 +289,255 @@ public class RestApiManager {
         }
     }
     
-    // Procesar comandos pendientes recibidos
-    private void processPendingCommands(JSONObject commands) {
-        // Implementar procesamiento de comandos según la API
+    // Conexión establecida (handshake o reanudación)
+    private void onConnected(JSONObject response, String message) {
+        updateEndpoints(response);
+        // Sesión nueva o reanudada: la próxima consulta pide el estado completo
+        pollEtag = null;
+        String token = response.optString("sessionToken", "");
+        if (sessionStore != null && !token.isEmpty()) {
+            sessionStore.saveToken(token);
+        }
+        
+        // La configuración puede venir en la respuesta; si no, se pide si hay una más reciente
+        if (remoteConfig != null) {
+            if (response.has("config")) {
+                remoteConfig.update(response.optJSONObject("config"));
+            } else {
+                remoteConfig.fetch();
+            }
+        }
+        
+        notifyConnectionStatus(true, message);
+        
+        // Iniciar polling de comandos
+        startPolling();
+        
+        // Procesar comandos pendientes si los hay
+        if (response.has("pendingCommands")) {
+            processPendingCommands(response.opt("pendingCommands"));
+        }
+    }
+    
+    // El servidor puede enviar la lista de endpoints regionales disponibles
+    private void updateEndpoints(JSONObject response) {
+        JSONArray endpoints = response.optJSONArray("endpoints");
+        if (endpointSelector != null && endpoints != null) {
+            endpointSelector.updateEndpoints(endpoints);
+        }
+    }
+    
+    // Procesar comandos pendientes recibidos: se encolan en orden y, en cuanto uno no cabe,
+    // el resto se difiere para no alterar el orden. El resultado se informa al servidor.
+    private void processPendingCommands(Object commands) {
+        List<JSONObject> items = toCommandList(commands);
+        if (items.isEmpty()) {
+            return;
+        }
+        if (commandPipeline == null) {
+            Log.e(TAG, "RestApiManager no inicializado, comandos descartados");
+            return;
+        }
+        
+        JSONArray deferred = new JSONArray();
+        JSONArray rejected = new JSONArray();
+        int accepted = 0;
+        int expired = 0;
+        boolean full = false;
+        
+        for (JSONObject item : items) {
+            String commandId = item.optString("commandId", item.optString("id", ""));
+            if (full) {
+                deferred.put(commandId);
+                continue;
+            }
+            
+            CallCommand command = MessageCodec.decode(MessageCodec.CALL_COMMAND_ADAPTER, item.toString());
+            if (command != null && command.type == null) {
+                command.type = item.optString("command", null);
+            }
+            if (command != null) {
+                TraceContext.received(command);
+            }
+            switch (commandPipeline.offer(command)) {
+                case ACCEPTED:
+                    accepted++;
+                    break;
+                case DEFERRED:
+                    full = true;
+                    deferred.put(commandId);
+                    break;
+                case EXPIRED:
+                    expired++;
+                    break;
+                case REJECTED:
+                    rejected.put(commandId);
+                    break;
+                case DUPLICATE:
+                    break;
+            }
+        }
+        
+        sendCommandAck(accepted, expired, deferred, rejected);
+    }
+    
+    // Los comandos pueden llegar como array, como {"items": [...]} o como mapa id -> comando
+    private List<JSONObject> toCommandList(Object commands) {
+        List<JSONObject> items = new ArrayList<>();
+        JSONArray array = null;
+        if (commands instanceof JSONArray) {
+            array = (JSONArray) commands;
+        } else if (commands instanceof JSONObject) {
+            JSONObject object = (JSONObject) commands;
+            array = object.optJSONArray("items");
+            if (array == null) {
+                Iterator<String> keys = object.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    JSONObject item = object.optJSONObject(key);
+                    if (item != null) {
+                        if (!item.has("commandId")) {
+                            try {
+                                item.put("commandId", key);
+                            } catch (JSONException e) {
+                                Log.e(TAG, "Error al completar id de comando", e);
+                            }
+                        }
+                        items.add(item);
+                    }
+                }
+            }
+        }
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.optJSONObject(i);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+    
+    // Informar al servidor de cuántos comandos se aceptaron y cuáles debe reenviar más tarde
+    private void sendCommandAck(int accepted, int expired, JSONArray deferred, JSONArray rejected) {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("deviceId", deviceId);
+            body.put("accepted", accepted);
+            body.put("expired", expired);
+            body.put("deferred", deferred.length());
+            body.put("deferredIds", deferred);
+            body.put("rejectedIds", rejected);
+            body.put("queueCapacity", commandPipeline.remainingCapacity());
+            if (sessionStore != null) {
+                body.put("lastSequence", sessionStore.getLastSequence());
+            }
+            
+            post("/api/public/device-command-ack", body, null);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo de confirmación de comandos", e);
+        }
     }
     
     // Iniciar polling de comandos
     private void startPolling() {
         isPolling = true;
-        pollingHandler.removeCallbacks(pollingRunnable);
-        pollingHandler.post(pollingRunnable);
+        if (scheduler != null) {
+            scheduler.register(POLL_JOB, pollingJob);
+        }
     }
     
     // Detener polling de comandos
     private void stopPolling() {
         isPolling = false;
-        pollingHandler.removeCallbacks(pollingRunnable);
+        if (scheduler != null) {
+            scheduler.unregister(POLL_JOB);
+        }
     }
     
-    // Consultar comandos pendientes
+    // Consultar comandos pendientes. Es el mismo contrato de polling que ha usado siempre la app:
+    // POST a device-status sin campo "status" (los informes de estado sí lo llevan) y el servidor
+    // responde con los comandos. La petición añade la última secuencia confirmada y el ETag de
+    // la última respuesta; si no hay nada nuevo el servidor puede responder 304 (o 204) sin
+    // cuerpo y no se lee, parsea ni publica nada. Un servidor que ignore If-None-Match sigue
+    // respondiendo 200 con los comandos, como antes.
     private void pollCommands() {
+        String body = pollBody();
+        if (body != null) {
+            send(POLL_ENDPOINT, body, pollCallback, true, true, 0);
+        }
+    }
+    
+    // Cuerpo de la consulta; se reutiliza mientras no cambien secuencia ni configuración
+    // (initialize lo descarta si cambia el deviceId)
+    private synchronized String pollBody() {
+        long sequence = sessionStore != null ? sessionStore.getLastSequence() : 0;
+        int configVersion = remoteConfig != null ? remoteConfig.getVersion() : 0;
+        if (pollBody != null && sequence == pollBodySequence && configVersion == pollBodyConfigVersion) {
+            return pollBody;
+        }
         try {
             JSONObject body = new JSONObject();
             body.put("deviceId", deviceId);
-            
-            post("/api/public/device-status", body, new RestApiCallback() {
-                @Override
-                public void onSuccess(JSONObject response) {
-                    try {
-                        if (response.has("commands")) {
-                            JSONObject commands = response.getJSONObject("commands");
-                            processPendingCommands(commands);
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Error al procesar comandos en polling", e);
-                    }
-                }
-                
-                @Override
-                public void onFailure(String error) {
-                    Log.e(TAG, "Error en polling: " + error);
-                }
-            });
+            if (sessionStore != null) {
+                body.put("lastSequence", sequence);
+            }
+            if (remoteConfig != null) {
+                body.put("configVersion", configVersion);
+            }
+            pollBody = body.toString();
+            pollBodySequence = sequence;
+            pollBodyConfigVersion = configVersion;
+            return pollBody;
         } catch (JSONException e) {
             Log.e(TAG, "Error al crear cuerpo para polling", e);
+            return null;
         }
     }
     
+    private final RestApiCallback pollCallback = new RestApiCallback() {
+        @Override
+        public void onSuccess(JSONObject response) {
+            // El servidor adjunta la configuración cuando configVersion está desfasada
+            if (remoteConfig != null && response.has("config")) {
+                remoteConfig.update(response.optJSONObject("config"));
+            }
+            if (response.has("commands")) {
+                processPendingCommands(response.opt("commands"));
+            }
+        }
+        
+        @Override
+        public void onFailure(String error) {
+            Log.e(TAG, "Error en polling: " + error);
+        }
+    };
+    
     // Enviar actualización de estado de llamada
     public void sendCallStatus(String callId, String phoneNumber, String status, String direction) {
+        CallStatusEvent event = new CallStatusEvent();
+        event.callId = callId;
+        event.phoneNumber = phoneNumber;
+        event.status = status;
+        event.direction = direction;
+        event.timestamp = System.currentTimeMillis();
+        sendCallStatus(event);
+    }
+    
+    public void sendCallStatus(CallStatusEvent event) {
         try {
             JSONObject body = new JSONObject();
             body.put("deviceId", deviceId);
             body.put("action", "UPDATE_CALL_STATUS");
-            body.put("callId", callId);
-            body.put("phoneNumber", phoneNumber);
-            body.put("callStatus", status);
-            body.put("direction", direction);
-            body.put("timestamp", System.currentTimeMillis());
+            body.put("callId", event.callId);
+            body.put("phoneNumber", event.phoneNumber);
+            body.put("numberKey", event.numberKey);
+            body.put("callStatus", event.status);
+            body.put("direction", event.direction);
+            body.put("duration", event.duration);
+            body.put("traceId", event.traceId);
+            body.put("timestamp", event.timestamp);
             
             post("/api/public/device-call-action", body, new RestApiCallback() {
                 @Override
@@ -202,22 +566,52 @@ public class RestApiManager {
             body.put("networkType", networkType);
             body.put("timestamp", System.currentTimeMillis());
             
-            post("/api/public/device-status", body, new RestApiCallback() {
-                @Override
-                public void onSuccess(JSONObject response) {
-                    Log.d(TAG, "Estado del dispositivo enviado correctamente");
-                }
-                
-                @Override
-                public void onFailure(String error) {
-                    Log.e(TAG, "Error al enviar estado del dispositivo: " + error);
-                }
-            });
+            post("/api/public/device-status", body, deviceStatusCallback);
         } catch (JSONException e) {
             Log.e(TAG, "Error al crear cuerpo para estado del dispositivo", e);
         }
     }
     
+    // Informe periódico completo (el mismo DEVICE_STATUS que se envía por WebSocket)
+    public void sendDeviceStatus(DeviceStatus status) {
+        try {
+            JSONObject body = new JSONObject(MessageCodec.encode(MessageCodec.DEVICE_STATUS_ADAPTER, status));
+            body.put("deviceId", deviceId);
+            post("/api/public/device-status", body, deviceStatusCallback);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo para estado del dispositivo", e);
+        }
+    }
+    
+    private final RestApiCallback deviceStatusCallback = new RestApiCallback() {
+        @Override
+        public void onSuccess(JSONObject response) {
+            Log.d(TAG, "Estado del dispositivo enviado correctamente");
+        }
+        
+        @Override
+        public void onFailure(String error) {
+            Log.e(TAG, "Error al enviar estado del dispositivo: " + error);
+        }
+    };
+    
+    // Enviar el resumen de métricas de llamadas por ventana (ver CallAnalytics)
+    public void sendCallStats(JSONObject windows) {
+        if (serverUrl == null) {
+            return;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("deviceId", deviceId);
+            body.put("timestamp", System.currentTimeMillis());
+            body.put("windows", windows);
+            
+            post("/api/public/device-call-stats", body, null);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo para métricas de llamadas", e);
+        }
+    }
+    
     // Realizar vinculación con código
     public void pairWithCode(String pairingCode, final PairingCallback callback) {
         try {
@@ -230,6 +624,7 @@ public class RestApiManager {
             post("/api/public/device-pairing", body, new RestApiCallback() {
                 @Override
                 public void onSuccess(JSONObject response) {
+                    updateEndpoints(response);
                     boolean success = false;
                     try {
                         success = response.getBoolean("success");
@@ -268,36 +663,79 @@ public class RestApiManager {
         notifyConnectionStatus(false, "Desconectado");
     }
     
-    // Método POST genérico
+    // Método POST genérico: pasa por el limitador y reintenta las llamadas idempotentes
     private void post(String endpoint, JSONObject body, final RestApiCallback callback) {
-        String url = serverUrl + endpoint;
+        send(endpoint, body.toString(), callback, IDEMPOTENT_ENDPOINTS.contains(endpoint), false, 0);
+    }
+    
+    // conditional: petición de polling con If-None-Match; 304/204 se entregan como onNotModified
+    private void send(final String endpoint, final String json, final RestApiCallback callback,
+                      final boolean idempotent, final boolean conditional, final int attempt) {
+        long delay = rateLimiter.reserve(endpoint);
+        if (delay > 0) {
+            if (delay > MAX_QUEUED_DELAY_MS) {
+                // Sobrecarga prolongada: fallar ya en lugar de acumular peticiones
+                deliverFailure(callback, "Límite de peticiones para " + endpoint);
+                return;
+            }
+            retryExecutor.schedule(() -> send(endpoint, json, callback, idempotent, conditional, attempt),
+                    delay, TimeUnit.MILLISECONDS);
+            return;
+        }
         
-        RequestBody requestBody = RequestBody.create(body.toString(), JSON);
-        Request request = new Request.Builder()
-            .url(url)
-            .post(requestBody)
-            .build();
+        final String base = baseUrl();
+        final long startedAt = SystemClock.elapsedRealtime();
+        final long sentAt = System.currentTimeMillis();
+        Request request = jsonRequest(base + endpoint, json);
+        String etag = pollEtag;
+        if (conditional && etag != null) {
+            request = request.newBuilder().header("If-None-Match", etag).build();
+        }
             
         client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Error en petición HTTP", e);
-                if (callback != null) {
-                    new Handler(Looper.getMainLooper()).post(() -> {
-                        callback.onFailure(e.getMessage());
-                    });
+                EventLog.record(EventLog.HTTP_FAILURE, attempt, SystemClock.elapsedRealtime() - startedAt, endpoint);
+                reportEndpointResult(base, false, -1);
+                if (idempotent && attempt < MAX_RETRIES) {
+                    retry(endpoint, json, callback, conditional, attempt, rateLimiter.backoffMs(attempt));
+                    return;
                 }
+                deliverFailure(callback, 0, e.getMessage() != null ? e.getMessage() : e.toString());
             }
             
             @Override
             public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
+                try {
+                    handleResponse(response);
+                } finally {
+                    response.close();
+                }
+            }
+            
+            private void handleResponse(Response response) throws IOException {
+                int code = response.code();
+                EventLog.record(EventLog.HTTP_REQUEST, code, SystemClock.elapsedRealtime() - startedAt, endpoint);
+                rateLimiter.onResponse(endpoint, code, response.header("Retry-After"),
+                        response.header("RateLimit-Remaining"), response.header("RateLimit-Reset"));
+                // Los 5xx cuentan como fallo del endpoint; los 4xx son errores de la petición
+                reportEndpointResult(base, code < 500, rttOf(response));
+                if (conditional && (code == 304 || code == 204 ||
+                                    (code == 200 && response.body().contentLength() == 0))) {
+                    // Sin cambios: el cuerpo no se lee ni se parsea
                     if (callback != null) {
-                        final String errorMsg = "HTTP " + response.code();
-                        new Handler(Looper.getMainLooper()).post(() -> {
-                            callback.onFailure(errorMsg);
-                        });
+                        callback.onNotModified();
+                    }
+                    return;
+                }
+                if (!response.isSuccessful()) {
+                    boolean retryable = code == 429 || code == 502 || code == 503 || code == 504;
+                    if (idempotent && retryable && attempt < MAX_RETRIES) {
+                        long wait = Math.max(rateLimiter.blockedForMs(endpoint), rateLimiter.backoffMs(attempt));
+                        retry(endpoint, json, callback, conditional, attempt, wait);
+                        return;
                     }
+                    deliverFailure(callback, code, "HTTP " + code);
                     return;
                 }
                 
@@ -305,63 +743,193 @@ public class RestApiManager {
                     try {
                         final String responseString = response.body().string();
                         final JSONObject jsonResponse = new JSONObject(responseString);
+                        // El ETag solo avanza con una respuesta ya parseada
+                        String etag = conditional ? response.header("ETag") : null;
+                        if (etag != null) {
+                            pollEtag = etag;
+                        }
+                        if (clockSync != null) {
+                            clockSync.onSample(jsonResponse.optLong("serverTime", 0), sentAt, System.currentTimeMillis());
+                        }
                         
                         new Handler(Looper.getMainLooper()).post(() -> {
                             callback.onSuccess(jsonResponse);
                         });
                     } catch (JSONException e) {
                         Log.e(TAG, "Error al parsear respuesta JSON", e);
-                        final String errorMsg = "Error al parsear respuesta: " + e.getMessage();
-                        
-                        new Handler(Looper.getMainLooper()).post(() -> {
-                            callback.onFailure(errorMsg);
-                        });
+                        deliverFailure(callback, "Error al parsear respuesta: " + e.getMessage());
                     }
                 }
             }
         });
     }
     
-    // Interfaz para callback de API REST
-    private interface RestApiCallback {
-        void onSuccess(JSONObject response);
-        void onFailure(String error);
+    // Petición POST con cuerpo JSON, comprimido con gzip si la configuración remota lo activa
+    private Request jsonRequest(String url, String json) {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (remoteConfig != null && remoteConfig.get().compression && json.length() >= COMPRESSION_MIN_BYTES) {
+            try {
+                builder.header("Content-Encoding", "gzip");
+                return builder.post(RequestBody.create(gzip(json), JSON)).build();
+            } catch (IOException e) {
+                Log.w(TAG, "Error al comprimir cuerpo, se envía sin comprimir", e);
+                builder.removeHeader("Content-Encoding");
+            }
+        }
+        return builder.post(RequestBody.create(json, JSON)).build();
     }
     
-    // Interfaz para callback de emparejamiento
-    public interface PairingCallback {
-        void onResult(boolean success);
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+    
+    private void retry(final String endpoint, final String json, final RestApiCallback callback,
+                       final boolean conditional, final int attempt, long delayMs) {
+        retryExecutor.schedule(() -> send(endpoint, json, callback, true, conditional, attempt + 1),
+                delayMs, TimeUnit.MILLISECONDS);
     }
     
-    // Interfaz para listeners
-    public interface RestApiListener {
-        void onConnectionStatus(boolean connected, String message);
-        void onCommandReceived(String command, JSONObject data);
+    private void deliverFailure(final RestApiCallback callback, final String error) {
+        deliverFailure(callback, 0, error);
     }
     
-    // Añadir listener
-    public void addListener(RestApiListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
+    // code: estado HTTP de la respuesta, 0 si no la hubo
+    private void deliverFailure(final RestApiCallback callback, final int code, final String error) {
+        if (callback != null) {
+            new Handler(Looper.getMainLooper()).post(() -> {
+                callback.onFailure(code, error);
+            });
         }
     }
     
-    // Eliminar listener
-    public void removeListener(RestApiListener listener) {
-        listeners.remove(listener);
+    // Método POST síncrono para hilos de trabajo; devuelve la respuesta JSON o lanza IOException
+    JSONObject postBlocking(String endpoint, JSONObject body) throws IOException {
+        if (serverUrl == null) {
+            throw new IOException("RestApiManager no inicializado");
+        }
+        
+        // Hilo de trabajo: se espera al limitador aquí mismo; quien llama decide si reintentar
+        long delay;
+        while ((delay = rateLimiter.reserve(endpoint)) > 0) {
+            if (delay > MAX_QUEUED_DELAY_MS) {
+                throw new IOException("Límite de peticiones para " + endpoint);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido esperando al limitador", e);
+            }
+        }
+        
+        String base = baseUrl();
+        Request request = jsonRequest(base + endpoint, body.toString());
+            
+        Response response;
+        try {
+            response = client.newCall(request).execute();
+        } catch (IOException e) {
+            reportEndpointResult(base, false, -1);
+            throw e;
+        }
+        try {
+            rateLimiter.onResponse(endpoint, response.code(), response.header("Retry-After"),
+                    response.header("RateLimit-Remaining"), response.header("RateLimit-Reset"));
+            reportEndpointResult(base, response.code() < 500, rttOf(response));
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            return new JSONObject(response.body().string());
+        } catch (JSONException e) {
+            throw new IOException("Error al parsear respuesta: " + e.getMessage(), e);
+        } finally {
+            response.close();
+        }
     }
     
-    // Notificar estado de conexión a todos los listeners
-    private void notifyConnectionStatus(boolean connected, String message) {
-        for (RestApiListener listener : listeners) {
-            listener.onConnectionStatus(connected, message);
+    // Informar de la ejecución de un comando programado y su desviación respecto a la hora prevista
+    public void reportCommandExecution(CallCommand command, long executedAt, long skewMs, boolean executed) {
+        if (serverUrl == null) {
+            return;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("deviceId", deviceId);
+            body.put("commandId", command.commandId);
+            body.put("sequence", command.sequence);
+            body.put("plannedAt", command.executeAt);
+            body.put("executedAt", executedAt);
+            body.put("skewMs", skewMs);
+            body.put("clockOffsetMs", clockSync != null ? clockSync.getOffsetMs() : 0);
+            body.put("executed", executed);
+            
+            post("/api/public/device-command-executed", body, null);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo de ejecución programada", e);
         }
     }
     
-    // Notificar comando recibido a todos los listeners
-    private void notifyCommandReceived(String command, JSONObject data) {
-        for (RestApiListener listener : listeners) {
-            listener.onCommandReceived(command, data);
+    // Subir el volcado comprimido del registro de eventos (comando DUMP_LOGS)
+    public void uploadEventLog() {
+        if (serverUrl == null) {
+            Log.e(TAG, "RestApiManager no inicializado, volcado de eventos descartado");
+            return;
         }
+        
+        byte[] dump;
+        try {
+            dump = EventLog.dumpCompressed();
+        } catch (IOException e) {
+            Log.e(TAG, "Error al volcar registro de eventos", e);
+            return;
+        }
+        
+        Request request = new Request.Builder()
+            .url(baseUrl() + "/api/public/device-logs")
+            .header("X-Device-Id", deviceId)
+            .post(RequestBody.create(dump, GZIP))
+            .build();
+            
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "Error al subir registro de eventos", e);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                Log.i(TAG, "Registro de eventos subido (" + dump.length + " bytes): HTTP " + response.code());
+            }
+        });
+    }
+    
+    // Interfaz para callback de API REST
+    private interface RestApiCallback {
+        void onSuccess(JSONObject response);
+        void onFailure(String error);
+        
+        // Fallo con el estado HTTP (0 si no hubo respuesta); por defecto solo importa el mensaje
+        default void onFailure(int code, String error) {
+            onFailure(error);
+        }
+        
+        // Respuesta condicional sin cambios; se invoca en el hilo de red
+        default void onNotModified() {
+        }
+    }
+    
+    // Interfaz para callback de emparejamiento
+    public interface PairingCallback {
+        void onResult(boolean success);
+    }
+    
+    // Notificar estado de conexión a través del bus de eventos
+    private void notifyConnectionStatus(boolean connected, String message) {
+        EventBus.publish(EventBus.CONNECTION, new EventBus.ConnectionEvent("REST_API", connected, message));
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+// Persiste el token de sesión reanudable y la secuencia del último comando confirmado,
+// para que tras un reinicio el dispositivo pueda reanudar la sesión en una sola petición.
+public class SessionStore {
+    private static final String TOKEN_KEY = "session_token";
+    private static final String SEQUENCE_KEY = "session_last_sequence";
+
+    private final SharedPreferences preferences;
+    private volatile long lastSequence;
+    // Aviso al descartar la sesión: quien lleve su propia secuencia debe reiniciarla
+    private volatile Runnable clearListener;
+
+    public SessionStore(Context context) {
+        this.preferences = KeyValueStore.getInstance(context);
+        this.lastSequence = preferences.getLong(SEQUENCE_KEY, 0);
+    }
+
+    public String getToken() {
+        return preferences.getString(TOKEN_KEY, "");
+    }
+
+    public boolean hasSession() {
+        return !getToken().isEmpty();
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // Guardar un token nuevo emitido por el servidor
+    public void saveToken(String token) {
+        preferences.edit().putString(TOKEN_KEY, token).apply();
+    }
+
+    // Registrar un comando confirmado; la secuencia solo avanza
+    public synchronized void acknowledge(long sequence) {
+        if (sequence > lastSequence) {
+            lastSequence = sequence;
+            preferences.edit().putLong(SEQUENCE_KEY, sequence).apply();
+        }
+    }
+
+    public void setClearListener(Runnable listener) {
+        this.clearListener = listener;
+    }
+
+    // Descartar la sesión (el servidor la rechazó o se desemparejó el dispositivo)
+    public void clear() {
+        synchronized (this) {
+            lastSequence = 0;
+            preferences.edit().remove(TOKEN_KEY).remove(SEQUENCE_KEY).apply();
+        }
+        Runnable listener = clearListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
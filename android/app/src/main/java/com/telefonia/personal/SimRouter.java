@@ -0,0 +1,275 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Reparto de las llamadas salientes entre las líneas (SIM) del dispositivo.
+// Cada línea es una PhoneAccountHandle de TelecomManager; la elegida viaja en el intent de
+// la llamada como EXTRA_PHONE_ACCOUNT_HANDLE. Primero se aplican las reglas por prefijo de la
+// configuración remota y después la política (turno rotatorio o menos minutos hoy). Se
+// lleva la cuenta de llamadas en curso, llamadas y segundos del día por línea; el uso del
+// día se guarda en KeyValueStore para sobrevivir a reinicios del proceso.
+public class SimRouter {
+    private static final String TAG = "SimRouter";
+    private static SimRouter instance;
+
+    public static final String POLICY_DEFAULT = "default";
+    public static final String POLICY_ROUND_ROBIN = "round_robin";
+    public static final String POLICY_LEAST_USED = "least_used";
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    // Una asignación sin fin de llamada más antigua que esto se da por perdida
+    private static final long MAX_ASSIGNMENT_MS = 4 * 60 * 60 * 1000;
+    private static final String USAGE_DAY_KEY = "line_usage_day";
+    private static final String USAGE_SECONDS_PREFIX = "line_seconds_";
+    private static final String USAGE_CALLS_PREFIX = "line_calls_";
+
+    // Uso de una línea, también el formato del informe de estado
+    public static final class LineUsage {
+        public final String id;
+        public int activeCalls;
+        public int callsToday;
+        public long secondsToday;
+
+        LineUsage(String id) {
+            this.id = id;
+        }
+    }
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final RemoteConfig remoteConfig;
+    private final Map<String, LineUsage> usage = new HashMap<>();
+    // Línea asignada a una llamada, hasta que termina
+    private static final class Assignment {
+        final String lineId;
+        final long at;
+
+        Assignment(String lineId, long at) {
+            this.lineId = lineId;
+            this.at = at;
+        }
+    }
+
+    // callId -> asignación
+    private final Map<String, Assignment> assignments = new HashMap<>();
+    private long usageDay;
+    private int nextLine;
+
+    // Constructor privado (Singleton)
+    private SimRouter(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = KeyValueStore.getInstance(this.context);
+        this.remoteConfig = RemoteConfig.getInstance(this.context);
+        this.usageDay = preferences.getLong(USAGE_DAY_KEY, 0);
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized SimRouter getInstance(Context context) {
+        if (instance == null) {
+            instance = new SimRouter(context);
+        }
+        return instance;
+    }
+
+    // Elegir línea para una llamada saliente y reservarla. Devuelve null para usar la SIM por
+    // defecto del sistema (política "default", una sola línea o sin permiso).
+    public synchronized PhoneAccountHandle acquire(String callId, String numberKey) {
+        List<PhoneAccountHandle> lines = callCapableLines();
+        RemoteConfig.Values config = remoteConfig.get();
+        if (lines.size() < 2 || callId == null) {
+            return null;
+        }
+        rollDay();
+        expireAssignments();
+
+        int index = ruleFor(config, numberKey, lines.size());
+        if (index < 0 || isSaturated(lines.get(index), config)) {
+            if (POLICY_DEFAULT.equals(config.routingPolicy)) {
+                return null;
+            }
+            index = POLICY_LEAST_USED.equals(config.routingPolicy) ?
+                    leastUsed(lines, config) : roundRobin(lines, config);
+        }
+
+        PhoneAccountHandle line = lines.get(index);
+        LineUsage lineUsage = usageOf(line.getId());
+        lineUsage.activeCalls++;
+        assignments.put(callId, new Assignment(line.getId(), System.currentTimeMillis()));
+        return line;
+    }
+
+    // La llamada terminó (o falló al marcar): liberar la línea y sumar su duración al día
+    public synchronized void release(String callId, int durationSeconds) {
+        Assignment assignment = callId != null ? assignments.remove(callId) : null;
+        if (assignment == null) {
+            return;
+        }
+        rollDay();
+        String id = assignment.lineId;
+        LineUsage lineUsage = usageOf(id);
+        lineUsage.activeCalls = Math.max(0, lineUsage.activeCalls - 1);
+        lineUsage.callsToday++;
+        lineUsage.secondsToday += Math.max(0, durationSeconds);
+        preferences.edit()
+                .putLong(USAGE_SECONDS_PREFIX + id, lineUsage.secondsToday)
+                .putInt(USAGE_CALLS_PREFIX + id, lineUsage.callsToday)
+                .apply();
+    }
+
+    // El teléfono está en reposo: ninguna asignación que quede tiene ya llamada en curso
+    // (su fin llegó con otro callId o no llegó). Se liberan sin sumar duración.
+    public synchronized void releaseAll() {
+        for (Assignment assignment : assignments.values()) {
+            Log.w(TAG, "Línea " + assignment.lineId + " liberada sin fin de llamada");
+            LineUsage lineUsage = usageOf(assignment.lineId);
+            lineUsage.activeCalls = Math.max(0, lineUsage.activeCalls - 1);
+        }
+        assignments.clear();
+    }
+
+    // Asignaciones demasiado antiguas, por si el reposo tampoco llegó a notificarse
+    private void expireAssignments() {
+        long now = System.currentTimeMillis();
+        Iterator<Assignment> iterator = assignments.values().iterator();
+        while (iterator.hasNext()) {
+            Assignment assignment = iterator.next();
+            if (now - assignment.at > MAX_ASSIGNMENT_MS) {
+                LineUsage lineUsage = usageOf(assignment.lineId);
+                lineUsage.activeCalls = Math.max(0, lineUsage.activeCalls - 1);
+                iterator.remove();
+            }
+        }
+    }
+
+    // Copia del uso de cada línea para el informe de estado
+    public synchronized LineUsage[] usage() {
+        rollDay();
+        List<PhoneAccountHandle> lines = callCapableLines();
+        LineUsage[] result = new LineUsage[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            LineUsage current = usageOf(lines.get(i).getId());
+            LineUsage copy = new LineUsage(current.id);
+            copy.activeCalls = current.activeCalls;
+            copy.callsToday = current.callsToday;
+            copy.secondsToday = current.secondsToday;
+            result[i] = copy;
+        }
+        return result;
+    }
+
+    private List<PhoneAccountHandle> callCapableLines() {
+        TelecomManager telecomManager = (TelecomManager) context.getSystemService(Context.TELECOM_SERVICE);
+        if (telecomManager == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<PhoneAccountHandle> lines = telecomManager.getCallCapablePhoneAccounts();
+            return lines != null ? lines : Collections.<PhoneAccountHandle>emptyList();
+        } catch (SecurityException e) {
+            Log.w(TAG, "Sin permiso para listar las líneas, se usa la SIM por defecto");
+            return Collections.emptyList();
+        }
+    }
+
+    // Regla de prefijo más larga que coincide con el número normalizado; -1 si ninguna
+    private int ruleFor(RemoteConfig.Values config, String numberKey, int lineCount) {
+        if (numberKey == null) {
+            return -1;
+        }
+        int best = -1;
+        int bestLength = -1;
+        for (int i = 0; i < config.routingPrefixes.length; i++) {
+            String prefix = config.routingPrefixes[i];
+            int line = config.routingLines[i];
+            if (prefix.length() > bestLength && line < lineCount && numberKey.startsWith(prefix)) {
+                best = line;
+                bestLength = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    private int roundRobin(List<PhoneAccountHandle> lines, RemoteConfig.Values config) {
+        int count = lines.size();
+        for (int i = 0; i < count; i++) {
+            int index = (nextLine + i) % count;
+            if (!isSaturated(lines.get(index), config)) {
+                nextLine = index + 1;
+                return index;
+            }
+        }
+        // Todas ocupadas: se sigue rotando igualmente
+        int index = nextLine % count;
+        nextLine = index + 1;
+        return index;
+    }
+
+    // Línea libre con menos segundos hoy; si todas están ocupadas, la de menos llamadas en curso
+    private int leastUsed(List<PhoneAccountHandle> lines, RemoteConfig.Values config) {
+        int best = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (isSaturated(lines.get(i), config)) {
+                continue;
+            }
+            if (best < 0 || usageOf(lines.get(i).getId()).secondsToday <
+                             usageOf(lines.get(best).getId()).secondsToday) {
+                best = i;
+            }
+        }
+        if (best >= 0) {
+            return best;
+        }
+        best = 0;
+        for (int i = 1; i < lines.size(); i++) {
+            if (usageOf(lines.get(i).getId()).activeCalls < usageOf(lines.get(best).getId()).activeCalls) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private boolean isSaturated(PhoneAccountHandle line, RemoteConfig.Values config) {
+        return usageOf(line.getId()).activeCalls >= config.maxCallsPerLine;
+    }
+
+    private LineUsage usageOf(String id) {
+        LineUsage lineUsage = usage.get(id);
+        if (lineUsage == null) {
+            lineUsage = new LineUsage(id);
+            lineUsage.secondsToday = preferences.getLong(USAGE_SECONDS_PREFIX + id, 0);
+            lineUsage.callsToday = preferences.getInt(USAGE_CALLS_PREFIX + id, 0);
+            usage.put(id, lineUsage);
+        }
+        return lineUsage;
+    }
+
+    // Al cambiar de día (UTC) se ponen a cero los contadores diarios de todas las líneas
+    private void rollDay() {
+        long today = System.currentTimeMillis() / DAY_MS;
+        if (today == usageDay) {
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit().putLong(USAGE_DAY_KEY, today);
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(USAGE_SECONDS_PREFIX) || key.startsWith(USAGE_CALLS_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+        for (LineUsage lineUsage : usage.values()) {
+            lineUsage.secondsToday = 0;
+            lineUsage.callsToday = 0;
+        }
+        usageDay = today;
+    }
+}
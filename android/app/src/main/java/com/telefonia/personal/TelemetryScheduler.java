@@ -0,0 +1,175 @@
+package com.telefonia.personal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Planificador único para el trabajo periódico (polling, informes de estado, vaciado de lotes).
+// En cada despertar lee las condiciones del dispositivo y elige un perfil que fija los
+// intervalos y tamaños de lote. Los trabajos que vencerían poco después se adelantan al
+// despertar actual, de modo que la radio se activa una vez para varios trabajos.
+public class TelemetryScheduler {
+    private static final String TAG = "TelemetryScheduler";
+    private static TelemetryScheduler instance;
+
+    // Fracción del intervalo de un trabajo dentro de la cual se adelanta para alinearlo
+    private static final float ALIGNMENT_FRACTION = 0.25f;
+
+    public enum Profile {
+        PERFORMANCE(5000, 60 * 1000, 10),
+        BALANCED(15 * 1000, 5 * 60 * 1000, 25),
+        SAVER(60 * 1000, 15 * 60 * 1000, 50);
+
+        public final long pollIntervalMs;
+        public final long statusIntervalMs;
+        public final int batchFlushSize;
+
+        Profile(long pollIntervalMs, long statusIntervalMs, int batchFlushSize) {
+            this.pollIntervalMs = pollIntervalMs;
+            this.statusIntervalMs = statusIntervalMs;
+            this.batchFlushSize = batchFlushSize;
+        }
+
+        // Elegir el perfil según las condiciones actuales
+        public static Profile from(DeviceConditions conditions) {
+            if (conditions.networkClass == DeviceConditions.NETWORK_NONE || conditions.isDeviceIdle) {
+                return SAVER;
+            }
+            if (!conditions.isCharging) {
+                if (conditions.batteryLevel <= 15) {
+                    return SAVER;
+                }
+                if (!conditions.isInteractive && conditions.batteryLevel <= 30) {
+                    return SAVER;
+                }
+            }
+            boolean weakCellular = conditions.networkClass != DeviceConditions.NETWORK_WIFI &&
+                                   conditions.signalLevel >= 0 && conditions.signalLevel <= 1;
+            if (conditions.networkClass == DeviceConditions.NETWORK_CELLULAR_SLOW || weakCellular) {
+                return SAVER;
+            }
+            if (conditions.isCharging && (conditions.networkClass == DeviceConditions.NETWORK_WIFI ||
+                                          conditions.signalLevel >= 3)) {
+                return PERFORMANCE;
+            }
+            return BALANCED;
+        }
+    }
+
+    // Interfaz para trabajos periódicos
+    public interface Job {
+        long intervalMs(Profile profile);
+        void run(Profile profile, DeviceConditions conditions);
+    }
+
+    private static final class Entry {
+        final Job job;
+        long nextRunAt;
+
+        Entry(Job job, long nextRunAt) {
+            this.job = job;
+            this.nextRunAt = nextRunAt;
+        }
+    }
+
+    private final Context context;
+    private final HandlerThread thread;
+    private final Handler handler;
+    // Solo se accede desde el hilo del planificador
+    private final Map<String, Entry> jobs = new LinkedHashMap<>();
+    private final Runnable tick = this::runDueJobs;
+
+    private volatile Profile profile = Profile.BALANCED;
+    private volatile DeviceConditions conditions = new DeviceConditions();
+
+    // Constructor privado (Singleton)
+    private TelemetryScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.thread = new HandlerThread(TAG);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+        // Una configuración remota nueva puede cambiar los intervalos: reprogramar ya
+        EventBus.subscribe(EventBus.CONFIG, EventBus.DIRECT, values -> refresh());
+    }
+
+    // Obtener instancia (Singleton)
+    public static synchronized TelemetryScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new TelemetryScheduler(context);
+        }
+        return instance;
+    }
+
+    // Registrar (o reemplazar) un trabajo; se ejecuta en el siguiente despertar
+    public void register(final String name, final Job job) {
+        handler.post(() -> {
+            jobs.put(name, new Entry(job, SystemClock.uptimeMillis()));
+            runDueJobs();
+        });
+    }
+
+    // Eliminar un trabajo
+    public void unregister(final String name) {
+        handler.post(() -> {
+            jobs.remove(name);
+            reschedule();
+        });
+    }
+
+    // Reevaluar condiciones ahora (por ejemplo, al cambiar la red o al conectar el cargador)
+    public void refresh() {
+        handler.post(this::runDueJobs);
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public DeviceConditions getConditions() {
+        return conditions;
+    }
+
+    private void runDueJobs() {
+        long now = SystemClock.uptimeMillis();
+        conditions = DeviceConditions.capture(context);
+        Profile current = Profile.from(conditions);
+        if (current != profile) {
+            Log.i(TAG, "Perfil " + profile + " -> " + current + " " + conditions);
+            profile = current;
+        }
+
+        for (Map.Entry<String, Entry> item : jobs.entrySet()) {
+            Entry entry = item.getValue();
+            long interval = entry.job.intervalMs(current);
+            if (entry.nextRunAt - now <= interval * ALIGNMENT_FRACTION) {
+                try {
+                    entry.job.run(current, conditions);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error en trabajo " + item.getKey(), e);
+                }
+                entry.nextRunAt = now + interval;
+            } else if (entry.nextRunAt > now + interval) {
+                // El perfil se volvió más rápido: no esperar al intervalo anterior
+                entry.nextRunAt = now + interval;
+            }
+        }
+        reschedule();
+    }
+
+    private void reschedule() {
+        handler.removeCallbacks(tick);
+        if (jobs.isEmpty()) {
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (Entry entry : jobs.values()) {
+            next = Math.min(next, entry.nextRunAt);
+        }
+        handler.postAtTime(tick, next);
+    }
+}
@@ -0,0 +1,62 @@
+package com.telefonia.personal;
+
+import java.util.UUID;
+
+// Contexto de traza que acompaña a un comando desde que llega hasta que termina la llamada.
+// Guarda la marca de tiempo (ms de reloj de pared) de cada etapa; el servidor calcula con
+// ellas la latencia de cada tramo. Las etapas no alcanzadas quedan a 0.
+public class TraceContext {
+    // Etapas, en el orden en que se envían en "spans"
+    public static final int RECEIVED = 0;
+    public static final int DISPATCHED = 1;
+    public static final int DIALED = 2;
+    public static final int RINGING = 3;
+    public static final int ANSWERED = 4;
+    public static final int ENDED = 5;
+    private static final int STAGE_COUNT = 6;
+
+    public final String traceId;
+    private final long[] spans = new long[STAGE_COUNT];
+
+    public TraceContext(String traceId) {
+        this.traceId = traceId != null && !traceId.isEmpty() ? traceId : UUID.randomUUID().toString();
+    }
+
+    // Restaurar una traza guardada (recuperación tras la muerte del proceso)
+    public TraceContext(String traceId, long[] spans) {
+        this(traceId);
+        if (spans != null) {
+            System.arraycopy(spans, 0, this.spans, 0, Math.min(spans.length, STAGE_COUNT));
+        }
+    }
+
+    // Crear la traza de un comando recién recibido (conserva el traceId del servidor si lo trae).
+    // Un comando programado recargado de disco conserva su hora de recepción original.
+    public static TraceContext received(CallCommand command) {
+        if (command.trace == null) {
+            command.trace = new TraceContext(command.traceId);
+            command.traceId = command.trace.traceId;
+            if (command.receivedAt <= 0) {
+                command.receivedAt = System.currentTimeMillis();
+            }
+            command.trace.mark(RECEIVED, command.receivedAt);
+        }
+        return command.trace;
+    }
+
+    // Marcar una etapa; solo cuenta la primera vez
+    public void mark(int stage) {
+        mark(stage, System.currentTimeMillis());
+    }
+
+    public synchronized void mark(int stage, long at) {
+        if (spans[stage] == 0) {
+            spans[stage] = at;
+        }
+    }
+
+    // Copia de las marcas para adjuntarla a un evento
+    public synchronized long[] snapshot() {
+        return spans.clone();
+    }
+}
@@ -3,12 +3,13 @@ package com.telefonia.personal;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.handshake.ServerHandshake;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -20,9 +21,10 @@ import java.util.concurrent.TimeUnit;
 public class WebSocketManager {
     private static final String TAG = "WebSocketManager";
     private static WebSocketManager instance;
+    private static final int PENDING_CALL_RECORDS = 256;
+    private static final String FLUSH_JOB = "call-records";
     private Context context;
     private SharedPreferences preferences;
-    private Gson gson;
     private WebSocketClient client;
     private DeviceInfoHelper deviceInfoHelper;
 
@@ -32,18 +34,55 @@ public class WebSocketManager {
     
     private static final MutableLiveData<ConnectionStatus> _connectionStatus = new MutableLiveData<>(ConnectionStatus.DISCONNECTED);
     public static final LiveData<ConnectionStatus> connectionStatus = _connectionStatus;
-    private int reconnectInterval = 5000; 
+    private volatile long reconnectInterval = 5000;
     private boolean autoReconnect = true;
+    private final Handler reconnectHandler = new Handler(Looper.getMainLooper());
+    private final Runnable reconnectTask = this::connect;
+    private final RemoteConfig remoteConfig;
+    // El WebSocket se cerró por el modo de transporte y debe reabrirse si vuelve a permitirse
+    private boolean suspendedByConfig;
     private final Map<String, MessageCallback> pendingMessages = new ConcurrentHashMap<>();
     private final Map<String, CommandHandler> commandHandlers = new ConcurrentHashMap<>();
+    private final CommandFlowControl flowControl = new CommandFlowControl(CommandFlowControl.DEFAULT_WINDOW);
+    // Eventos de llamada no entregados, compactados por llamada hasta la reconexión
+    private final CallEventQueue pendingCallEvents = new CallEventQueue(PENDING_CALL_RECORDS);
 
     private WebSocketManager(Context context) {
         this.context = context.getApplicationContext();
-        this.preferences = this.context.getSharedPreferences("TelefoniaPersonal", Context.MODE_PRIVATE);
-        this.gson = new Gson();
+        this.preferences = KeyValueStore.getInstance(this.context);
         this.deviceInfoHelper = new DeviceInfoHelper(context);
+        this.remoteConfig = RemoteConfig.getInstance(this.context);
+        this.reconnectInterval = remoteConfig.get().reconnectIntervalMs;
         registerCommandHandlers();
+        EventBus.subscribe(EventBus.COMMAND, EventBus.DIRECT, this::dispatchCommand);
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, this::deliverCallStatus);
+        EventBus.subscribe(EventBus.TELEMETRY, EventBus.DIRECT, status -> {
+            if (remoteConfig.get().allowsWebSocket()) {
+                send(MessageCodec.encode(MessageCodec.DEVICE_STATUS_ADAPTER, status));
+            }
+        });
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, this::onCallFinished);
+        EventBus.subscribe(EventBus.CONFIG, EventBus.MAIN_THREAD, this::applyConfig);
+        TelemetryScheduler.getInstance(this.context).register(FLUSH_JOB, flushJob);
     }
+    
+    // Los registros acumulados sin conexión se vacían en lotes del tamaño del perfil, al ritmo
+    // del polling, en lugar de todos de golpe al reconectar. Al mismo ritmo se devuelven los
+    // créditos de los CALL cuyo fin no llegó
+    private final TelemetryScheduler.Job flushJob = new TelemetryScheduler.Job() {
+        @Override
+        public long intervalMs(TelemetryScheduler.Profile profile) {
+            return remoteConfig.get().pollIntervalMs(profile);
+        }
+        
+        @Override
+        public void run(TelemetryScheduler.Profile profile, DeviceConditions conditions) {
+            if (isConnected()) {
+                flushCallRecords(remoteConfig.get().batchFlushSize(profile));
+                sendFlowControl(flowControl.expireHeldCalls());
+            }
+        }
+    };
 
     public static synchronized WebSocketManager getInstance(Context context) {
         if (instance == null) {
@@ -61,59 +100,237 @@ public class WebSocketManager {
     }
 
     private void registerCommandHandlers() {
-        commandHandlers.put("CALL", (message) -> {
-            String callId = message.get("callId").getAsString();
-            String phoneNumber = message.get("phoneNumber").getAsString();
-            String direction = message.get("direction").getAsString();
-            CallService.initiateCall(context, phoneNumber, callId);
+        commandHandlers.put("CALL", (command) -> {
+            CallService.initiateCall(context, command.phoneNumber, command.callId, command.trace);
         });
+        // Volcar el registro de eventos en memoria y subirlo comprimido
+        commandHandlers.put("DUMP_LOGS", (command) -> RestApiManager.getInstance().uploadEventLog());
+        // Configuración remota enviada por el servidor al cambiar
+        commandHandlers.put("CONFIG", (command) -> remoteConfig.update(command.config));
+    }
+    
+    // Aplicar en caliente el intervalo de reconexión y el modo de transporte
+    private void applyConfig(RemoteConfig.Values values) {
+        reconnectInterval = values.reconnectIntervalMs;
+        if (!values.allowsWebSocket()) {
+            if (client != null) {
+                Log.i(TAG, "Modo de transporte " + values.transportMode + ", se cierra el WebSocket");
+                disconnect();
+                suspendedByConfig = true;
+            }
+        } else if (suspendedByConfig) {
+            suspendedByConfig = false;
+            connect();
+        }
+    }
+    
+    // Publicar un mensaje del servidor en el bus de comandos
+    private void handleMessage(String text) {
+        CallCommand command = MessageCodec.decode(MessageCodec.CALL_COMMAND_ADAPTER, text);
+        if (command == null || command.type == null) {
+            Log.w(TAG, "Mensaje no válido recibido");
+            return;
+        }
+        TraceContext.received(command);
+        if (!flowControl.tryAcquire(command)) {
+            sendFlowControl(flowControl.rejected(command));
+            return;
+        }
+        if (CommandScheduler.getInstance(context).schedule(command)) {
+            sendFlowControl(flowControl.complete());
+            return;
+        }
+        // Un CALL retiene su crédito hasta que termina la llamada; el resto, hasta que vuelve el handler
+        boolean isCall = "CALL".equals(command.type);
+        if (isCall) {
+            // Los eventos de la llamada llevan este callId; solo ellos devuelven el crédito
+            if (command.callId == null || command.callId.isEmpty()) {
+                command.callId = UUID.randomUUID().toString();
+            }
+            flowControl.holdForCall(command.callId);
+        }
+        EventBus.publish(EventBus.COMMAND, command);
+        if (!isCall) {
+            sendFlowControl(flowControl.complete());
+        }
+    }
+    
+    private void onCallFinished(CallStatusEvent event) {
+        if ("ended".equals(event.status) || "failed".equals(event.status)) {
+            sendFlowControl(flowControl.callFinished(event.callId));
+        }
+    }
+    
+    // Entrega en vivo; si no se puede, o si ya hay eventos de esa llamada esperando (para
+    // conservar el orden), el evento se une al registro compacto de su llamada. En modo "rest"
+    // los envía RestApiManager y aquí no se acumulan.
+    private void deliverCallStatus(CallStatusEvent event) {
+        if (!remoteConfig.get().allowsWebSocket()) {
+            return;
+        }
+        synchronized (pendingCallEvents) {
+            if (pendingCallEvents.contains(event.callId) ||
+                !send(MessageCodec.encode(MessageCodec.CALL_STATUS_ADAPTER, event))) {
+                pendingCallEvents.add(event);
+            }
+        }
+    }
+    
+    // Enviar hasta "limit" registros (uno por llamada) de lo acumulado mientras no había conexión
+    private void flushCallRecords(int limit) {
+        synchronized (pendingCallEvents) {
+            CallRecord record;
+            int sent = 0;
+            while (sent++ < limit && (record = pendingCallEvents.peek()) != null) {
+                if (!send(MessageCodec.encode(MessageCodec.CALL_RECORD_ADAPTER, record))) {
+                    return;
+                }
+                pendingCallEvents.remove(record);
+            }
+        }
+    }
+    
+    private void sendFlowControl(FlowControlMessage message) {
+        if (message != null) {
+            send(MessageCodec.encode(MessageCodec.FLOW_CONTROL_ADAPTER, message));
+        }
+    }
+    
+    // Despachar un comando (de cualquier transporte) al handler de su tipo
+    private void dispatchCommand(CallCommand command) {
+        CommandHandler handler = commandHandlers.get(command.type);
+        EventLog.record(EventLog.COMMAND_RECEIVED, command.sequence, handler != null ? 1 : 0, command.type);
+        TraceContext.received(command).mark(TraceContext.DISPATCHED);
+        if (handler == null) {
+            Log.w(TAG, "Comando desconocido: " + command.type);
+            return;
+        }
+        handler.handle(command);
+    }
+    
+    // Publicar estado de llamada; se envía al servidor desde la suscripción a CALL_STATE
+    public void sendCallStatus(String callId, String status, String phoneNumber, String direction, int duration) {
+        sendCallStatus(callId, status, phoneNumber, direction, duration, null);
+    }
+    
+    // Publicar estado de llamada adjuntando las marcas de su traza
+    public void sendCallStatus(String callId, String status, String phoneNumber, String direction, int duration,
+                               TraceContext trace) {
+        sendCallStatus(callId, status, phoneNumber, direction, duration, trace, null);
+    }
+    
+    // Publicar estado de llamada con su traza y el resumen de métricas del dispositivo
+    public void sendCallStatus(String callId, String status, String phoneNumber, String direction, int duration,
+                               TraceContext trace, MetricSeries.Summary[] samples) {
+        CallStatusEvent event = new CallStatusEvent();
+        event.callId = callId;
+        event.status = status;
+        event.phoneNumber = phoneNumber;
+        event.numberKey = PhoneNumberNormalizer.getInstance(context).normalize(phoneNumber);
+        event.direction = direction;
+        event.duration = duration;
+        event.timestamp = System.currentTimeMillis();
+        if (trace != null) {
+            event.traceId = trace.traceId;
+            event.spans = trace.snapshot();
+        }
+        event.samples = samples;
+        EventBus.publish(EventBus.CALL_STATE, event);
+    }
+    
+    // Publicar estado del dispositivo en el bus de telemetría
+    public void sendDeviceStatus(DeviceStatus status) {
+        EventBus.publish(EventBus.TELEMETRY, status);
+    }
+    
+    // Enviar un mensaje; devuelve false si no hay conexión abierta
+    private boolean send(String text) {
+        WebSocketClient current = client;
+        if (current == null || !current.isOpen()) {
+            Log.w(TAG, "WebSocket no conectado, mensaje no enviado");
+            return false;
+        }
+        try {
+            current.send(text);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
     }
     
     public void connect() {
+        reconnectHandler.removeCallbacks(reconnectTask);
+        if (!remoteConfig.get().allowsWebSocket()) {
+            Log.i(TAG, "WebSocket desactivado por la configuración remota");
+            return;
+        }
         if (client != null && (client.isOpen() || client.isConnecting())) {
             client.close();
         }
         
-        String serverUrl = preferences.getString("serverUrl", "");
+        final String serverUrl = EndpointSelector.getInstance(context).current();
         if (serverUrl.isEmpty()) {
             Log.e(TAG, "No server URL configured");
-            _connectionStatus.postValue(ConnectionStatus.ERROR);
+            setStatus(ConnectionStatus.ERROR);
             return;
         }
         
         try {
             URI uri = new URI(serverUrl);
-            _connectionStatus.postValue(ConnectionStatus.CONNECTING);
+            setStatus(ConnectionStatus.CONNECTING);
             client = new WebSocketClient(uri) {
                 @Override
                 public void onOpen(ServerHandshake handshakedata) {
                     Log.i(TAG, "WebSocket connected");
-                    _connectionStatus.postValue(ConnectionStatus.CONNECTED);
+                    setStatus(ConnectionStatus.CONNECTED);
+                    // Ventana inicial de créditos para esta conexión
+                    sendFlowControl(flowControl.reset());
+                    // Primer lote ya; el resto en los siguientes despertares del planificador
+                    TelemetryScheduler scheduler = TelemetryScheduler.getInstance(context);
+                    flushCallRecords(remoteConfig.get().batchFlushSize(scheduler.getProfile()));
+                    remoteConfig.fetch();
+                }
+                @Override
+                public void onMessage(String message) {
+                    handleMessage(message);
                 }
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     Log.w(TAG, "WebSocket closed: " + reason);
-                    _connectionStatus.postValue(ConnectionStatus.DISCONNECTED);
+                    setStatus(ConnectionStatus.DISCONNECTED);
+                    // Solo reconecta el cliente vigente: disconnect() y connect() lo sustituyen antes
+                    if (autoReconnect && client == this) {
+                        reconnectHandler.postDelayed(reconnectTask, reconnectInterval);
+                    }
                 }
                 @Override
                 public void onError(Exception ex) {
                     Log.e(TAG, "WebSocket error: " + ex.getMessage());
-                    _connectionStatus.postValue(ConnectionStatus.ERROR);
+                    EndpointSelector.getInstance(context).reportFailure(serverUrl);
+                    setStatus(ConnectionStatus.ERROR);
                 }
             };
             client.connect();
         } catch (URISyntaxException e) {
             Log.e(TAG, "Invalid WebSocket URI", e);
-            _connectionStatus.postValue(ConnectionStatus.ERROR);
+            setStatus(ConnectionStatus.ERROR);
         }
     }
     
+    // Actualizar el estado para la UI (LiveData) y para el resto de componentes (bus)
+    private void setStatus(ConnectionStatus status) {
+        _connectionStatus.postValue(status);
+        EventBus.publish(EventBus.CONNECTION, new EventBus.ConnectionEvent("WEBSOCKET",
+                status == ConnectionStatus.CONNECTED, status.name()));
+    }
+    
     public void disconnect() {
+        reconnectHandler.removeCallbacks(reconnectTask);
         if (client != null) {
             client.close();
             client = null;
         }
-        _connectionStatus.postValue(ConnectionStatus.DISCONNECTED);
+        setStatus(ConnectionStatus.DISCONNECTED);
     }
     
     public interface MessageCallback {
@@ -121,6 +338,6 @@ public class WebSocketManager {
     }
     
     private interface CommandHandler {
-        void handle(JsonObject message);
+        void handle(CallCommand command);
     }
 }
@@ -0,0 +1,198 @@
+package com.telefonia.personal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+// ChunkedUploader contra un servidor HTTP local: subida completa, reanudación tras una subida
+// parcial, reintento de errores transitorios y fallo inmediato ante un 4xx definitivo.
+public class ChunkedUploaderTest {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int SEGMENT_SIZE = 3 * CHUNK_SIZE + 500; // 4 fragmentos
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubHttpServer server;
+    private ChunkedUploader uploader;
+    private File segment;
+    private byte[] content;
+    // Fragmentos recibidos por el servidor, por índice
+    private final Map<Integer, byte[]> received = new ConcurrentHashMap<>();
+    private final AtomicInteger completeCalls = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[SEGMENT_SIZE];
+        new Random(42).nextBytes(content);
+        segment = folder.newFile("call-1_0.pcm");
+        try (FileOutputStream out = new FileOutputStream(segment)) {
+            out.write(content);
+        }
+        server = new StubHttpServer(this::accept);
+        // Sin reintentos propios de OkHttp: se cuentan solo los del uploader
+        OkHttpClient client = new OkHttpClient.Builder()
+                .readTimeout(5, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        uploader = new ChunkedUploader(client, server.url(), "device-1", CHUNK_SIZE, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        uploader.shutdown();
+        server.close();
+    }
+
+    // Servidor correcto: guarda cada fragmento, comprueba su checksum y el del segmento
+    private StubHttpServer.Response accept(StubHttpServer.Request request) throws Exception {
+        if (request.path.equals(ChunkedUploader.CHUNK_ENDPOINT)) {
+            String checksum = sha256(request.body);
+            if (!checksum.equals(request.header(ChunkedUploader.CHECKSUM_HEADER))) {
+                return new StubHttpServer.Response(422);
+            }
+            received.put(Integer.parseInt(request.param("chunk")), request.body);
+            return new StubHttpServer.Response(200).header(ChunkedUploader.CHECKSUM_HEADER, checksum);
+        }
+        if (request.path.equals(ChunkedUploader.COMPLETE_ENDPOINT)) {
+            completeCalls.incrementAndGet();
+            String body = new String(request.body, StandardCharsets.UTF_8);
+            boolean valid = body.contains("\"sha256\":\"" + sha256(content) + "\"");
+            return new StubHttpServer.Response(valid ? 200 : 409);
+        }
+        return new StubHttpServer.Response(404);
+    }
+
+    @Test
+    public void uploadsAllChunksAndCompletes() throws Exception {
+        assertTrue(uploader.uploadSegment(segment, "call-1", 0));
+
+        assertEquals(4, received.size());
+        assertArrayEquals(content, reassemble());
+        assertEquals(1, completeCalls.get());
+        assertFalse(ackFile().exists());
+    }
+
+    @Test
+    public void resumesOnlyMissingChunksAfterPartialUpload() throws Exception {
+        // Primer intento: el fragmento 2 falla siempre y agota sus reintentos
+        server.setHandler(request -> "2".equals(request.param("chunk")) ?
+                new StubHttpServer.Response(503) : accept(request));
+        assertFalse(uploader.uploadSegment(segment, "call-1", 0));
+        assertEquals(3, received.size());
+        assertEquals(0, completeCalls.get());
+        assertTrue(ackFile().exists());
+
+        // Segundo intento: solo se envía el fragmento que faltaba y después el cierre
+        server.setHandler(this::accept);
+        server.clearRequests();
+        assertTrue(uploader.uploadSegment(segment, "call-1", 0));
+
+        int chunkRequests = 0;
+        for (StubHttpServer.Request request : server.requests()) {
+            if (request.path.equals(ChunkedUploader.CHUNK_ENDPOINT)) {
+                assertEquals("2", request.param("chunk"));
+                chunkRequests++;
+            }
+        }
+        assertEquals(1, chunkRequests);
+        assertEquals(1, completeCalls.get());
+        assertArrayEquals(content, reassemble());
+        assertFalse(ackFile().exists());
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        server.setHandler(request -> {
+            if ("1".equals(request.param("chunk")) && failures.getAndIncrement() < 2) {
+                // Un 503 y después una conexión cortada sin respuesta
+                return failures.get() == 1 ? new StubHttpServer.Response(503) : null;
+            }
+            return accept(request);
+        });
+
+        assertTrue(uploader.uploadSegment(segment, "call-1", 0));
+        assertEquals(3, countChunkRequests("1"));
+        assertArrayEquals(content, reassemble());
+    }
+
+    @Test
+    public void failsFastOnClientError() throws Exception {
+        server.setHandler(request -> "0".equals(request.param("chunk")) ?
+                new StubHttpServer.Response(400) : accept(request));
+
+        long start = System.nanoTime();
+        try {
+            uploader.uploadSegment(segment, "call-1", 0);
+            fail("Se esperaba RejectedException");
+        } catch (ChunkedUploader.RejectedException e) {
+            assertEquals(400, e.code);
+        }
+        // Sin esperas de reintento: el 4xx no se repite
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertEquals(1, countChunkRequests("0"));
+        assertEquals(0, completeCalls.get());
+    }
+
+    @Test
+    public void restartsSegmentWhenChecksumIsRejected() throws Exception {
+        server.setHandler(request -> request.path.equals(ChunkedUploader.COMPLETE_ENDPOINT) ?
+                new StubHttpServer.Response(409) : accept(request));
+
+        assertFalse(uploader.uploadSegment(segment, "call-1", 0));
+        // Sin acks: el siguiente intento sube el segmento entero
+        assertFalse(ackFile().exists());
+    }
+
+    private int countChunkRequests(String chunk) {
+        int count = 0;
+        for (StubHttpServer.Request request : server.requests()) {
+            if (request.path.equals(ChunkedUploader.CHUNK_ENDPOINT) && chunk.equals(request.param("chunk"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private byte[] reassemble() {
+        byte[] out = new byte[SEGMENT_SIZE];
+        for (Map.Entry<Integer, byte[]> chunk : received.entrySet()) {
+            System.arraycopy(chunk.getValue(), 0, out, chunk.getKey() * CHUNK_SIZE, chunk.getValue().length);
+        }
+        return out;
+    }
+
+    private File ackFile() {
+        return new File(segment.getPath() + ".ack");
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package com.telefonia.personal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PhoneNumberNormalizerTest {
+
+    @Test
+    public void completesNationalNumbersOfKnownRegion() {
+        PhoneNumberNormalizer es = new PhoneNumberNormalizer("ES");
+        assertEquals("+34612345678", es.normalize("612 34 56 78"));
+        assertEquals("+34612345678", es.normalize("0034 612345678"));
+        assertEquals("+34612345678", es.normalize("34612345678"));
+
+        PhoneNumberNormalizer gb = new PhoneNumberNormalizer("GB");
+        assertEquals("+447911123456", gb.normalize("07911 123456"));
+    }
+
+    @Test
+    public void keepsNationalNumbersOfUnknownRegionWithoutCountryCode() {
+        PhoneNumberNormalizer nl = new PhoneNumberNormalizer("NL");
+        assertEquals("0612345678", nl.normalize("06-12345678"));
+        assertEquals("0201234567", nl.normalize("020 123 4567"));
+    }
+
+    @Test
+    public void normalizesInternationalNumbersOfUnknownRegion() {
+        PhoneNumberNormalizer nl = new PhoneNumberNormalizer("NL");
+        assertEquals("+31612345678", nl.normalize("+31 6 12345678"));
+        assertEquals("+31612345678", nl.normalize("0031 6 12345678"));
+        assertEquals("+34612345678", nl.normalize("+34 612 345 678"));
+    }
+
+    @Test
+    public void leavesShortAndServiceNumbersAlone() {
+        PhoneNumberNormalizer es = new PhoneNumberNormalizer("ES");
+        assertEquals("112", es.normalize("112"));
+        assertEquals("*#06#", es.normalize("*#06#"));
+        assertEquals(null, es.normalize(null));
+    }
+}
@@ -0,0 +1,43 @@
+package com.telefonia.personal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void retryAfterBlocksEndpointWithJitter() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        // Cada limitador hace de un dispositivo de la flota que recibe el mismo Retry-After
+        for (int device = 0; device < 50; device++) {
+            RateLimiter limiter = new RateLimiter();
+            limiter.onResponse("/api/public/device-status", 429, "10", null, null);
+            long wait = limiter.reserve("/api/public/device-status");
+            assertTrue("espera " + wait, wait > 9000 && wait <= 11000);
+            min = Math.min(min, wait);
+            max = Math.max(max, wait);
+        }
+        // Los dispositivos no vuelven todos en el mismo instante
+        assertTrue("dispersión " + (max - min), max - min > 100);
+    }
+
+    @Test
+    public void blockOnlyAffectsItsEndpoint() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.onResponse("/api/public/device-status", 503, null, null, null);
+        assertTrue(limiter.blockedForMs("/api/public/device-status") > 0);
+        assertEquals(0, limiter.reserve("/api/public/device-call-stats"));
+    }
+
+    @Test
+    public void backoffStaysWithinCeiling() {
+        RateLimiter limiter = new RateLimiter();
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long backoff = limiter.backoffMs(attempt);
+            assertTrue(backoff >= 0 && backoff <= Math.min(30000, 1000L << Math.min(attempt, 5)));
+        }
+    }
+}
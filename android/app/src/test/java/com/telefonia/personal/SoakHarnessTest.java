@@ -0,0 +1,312 @@
+package com.telefonia.personal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Prueba de resistencia en la JVM de las piezas del camino de comandos que no dependen de
+// Android: MessageCodec, CommandFlowControl, CommandPipeline, EventBus, CallEventQueue,
+// RateLimiter y EventLog. Cientos de miles de comandos y llamadas simulados, con reconexiones
+// y sesiones nuevas (la cola se suelta y se crea otra); se muestrean heap, hilos vivos,
+// suscriptores del bus y latencia de despacho y falla si alguna serie crece de forma
+// sostenida o si al terminar quedan suscriptores o hilos vivos.
+// Alcance: PhoneStateReceiver, CallService, RestApiManager y WebSocketManager necesitan el
+// framework de Android (Context, TelephonyManager, sockets del servicio) y el proyecto no usa
+// Robolectric, así que no se ejecutan aquí; onCommand y onCallState reproducen cómo se conectan
+// al bus, pero sus singletons y suscripciones propias quedan fuera de esta prueba.
+// Iteraciones: -Dsoak.iterations (gradle: -PsoakIterations), por defecto 200000.
+public class SoakHarnessTest {
+    private static final int ITERATIONS = Integer.getInteger("soak.iterations", 200_000);
+    private static final int SAMPLES = 40;
+    // Las primeras muestras incluyen la compilación JIT y el llenado de colas y cachés
+    private static final int WARMUP_SAMPLES = SAMPLES / 4;
+    private static final int RECONNECT_EVERY = 500;
+    private static final int SESSION_EVERY = 5000;
+    private static final int CALL_EVERY = 4;
+    private static final int DUMP_EVERY = 20_000;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long STALL_TIMEOUT_MS = 30 * 1000;
+    private static final String[] ENDPOINTS = {
+            "/api/public/device-status", "/api/public/call-status", "/api/public/device-call-stats"
+    };
+
+    // Límites: crecimiento proyectado sobre toda la ventana medida. Con 200000 iteraciones una
+    // fuga de 64 bytes por llamada supera de sobra el límite de heap.
+    private static final double MAX_HEAP_GROWTH_KB = 8 * 1024;
+    private static final double MAX_THREAD_GROWTH = 1;
+    private static final long MIN_LATENCY_BUDGET_US = 1000;
+
+    private CommandFlowControl flowControl;
+    private CommandPipeline pipeline;
+    private final CallEventQueue pendingCallEvents = new CallEventQueue(QUEUE_CAPACITY);
+    private final RateLimiter rateLimiter = new RateLimiter();
+    // Comandos ofrecidos aún sin despachar, con su instante de entrada (ns)
+    private final Map<String, Long> offeredAt = new ConcurrentHashMap<>();
+    private final AtomicLong latencyTotalNs = new AtomicLong();
+    private final AtomicLong latencyCount = new AtomicLong();
+    private volatile boolean connected = true;
+    private final AtomicLong connections = new AtomicLong();
+
+    private int baselineListeners;
+    private int baselineThreads;
+
+    // Suscriptores que reproducen el cableado de CallService y WebSocketManager
+    private final EventBus.Subscriber<CallCommand> device = this::onCommand;
+    private final EventBus.Subscriber<CallStatusEvent> transport = this::onCallState;
+    private EventBus.Subscriber<EventBus.ConnectionEvent> connectionListener;
+
+    @Before
+    public void setUp() {
+        baselineListeners = EventBus.subscriberCount();
+        baselineThreads = Thread.activeCount();
+        flowControl = new CommandFlowControl(CommandFlowControl.DEFAULT_WINDOW);
+        pipeline = new CommandPipeline(null, null);
+        EventBus.subscribe(EventBus.COMMAND, EventBus.DIRECT, device);
+        EventBus.subscribe(EventBus.CALL_STATE, EventBus.DIRECT, transport);
+        reconnect();
+    }
+
+    @After
+    public void tearDown() {
+        stopAll();
+    }
+
+    @Test
+    public void longRunKeepsResourcesAndLatencyFlat() throws IOException {
+        long[] heapKb = new long[SAMPLES];
+        long[] threads = new long[SAMPLES];
+        long[] listeners = new long[SAMPLES];
+        long[] latencyUs = new long[SAMPLES];
+        int sampleEvery = Math.max(1, ITERATIONS / SAMPLES);
+        int sample = 0;
+
+        for (int i = 1; i <= ITERATIONS; i++) {
+            submit(receive(i));
+
+            if (i % RECONNECT_EVERY == RECONNECT_EVERY / 2) {
+                // Media ventana desconectado: los eventos de llamada se acumulan en la cola
+                connected = false;
+            } else if (i % RECONNECT_EVERY == 0) {
+                if (i % SESSION_EVERY == 0) {
+                    newSession();
+                }
+                reconnect();
+            }
+            if (i % DUMP_EVERY == 0) {
+                assertTrue(EventLog.dumpCompressed().length > 0);
+            }
+            if (i % sampleEvery == 0 && sample < SAMPLES) {
+                awaitDrained();
+                heapKb[sample] = usedHeapKb();
+                threads[sample] = Thread.activeCount();
+                listeners[sample] = EventBus.subscriberCount();
+                long count = latencyCount.getAndSet(0);
+                latencyUs[sample] = count == 0 ? 0 : latencyTotalNs.getAndSet(0) / count / 1000;
+                sample++;
+            }
+        }
+        awaitDrained();
+
+        assertTrue("comandos sin despachar: " + offeredAt.size(), offeredAt.isEmpty());
+        assertEquals(ITERATIONS / RECONNECT_EVERY + 1, connections.get());
+        synchronized (pendingCallEvents) {
+            assertTrue("cola de eventos: " + pendingCallEvents.size(), pendingCallEvents.size() <= QUEUE_CAPACITY);
+        }
+        int measured = sample - WARMUP_SAMPLES;
+        assertTrue("muestras insuficientes: " + sample, measured >= 2);
+
+        double heapGrowth = slope(heapKb, WARMUP_SAMPLES, sample) * measured;
+        assertTrue("el heap crece " + (long) heapGrowth + " KB", heapGrowth < MAX_HEAP_GROWTH_KB);
+
+        double threadGrowth = slope(threads, WARMUP_SAMPLES, sample) * measured;
+        assertTrue("los hilos crecen " + threadGrowth, threadGrowth < MAX_THREAD_GROWTH);
+        for (int s = WARMUP_SAMPLES; s < sample; s++) {
+            assertTrue("hilos vivos " + threads[s], threads[s] <= threads[WARMUP_SAMPLES] + 1);
+            // Cada reconexión sustituye su suscriptor: el total no debe moverse
+            assertEquals("suscriptores en la muestra " + s, listeners[0], listeners[s]);
+        }
+
+        // Soltar todo: no debe quedar nada del arnés en el bus ni hilos de despacho
+        stopAll();
+        assertEquals("suscriptores tras soltar", baselineListeners, EventBus.subscriberCount());
+        assertTrue("hilos tras soltar: " + Thread.activeCount(), Thread.activeCount() <= baselineThreads);
+
+        double latencyGrowth = slope(latencyUs, WARMUP_SAMPLES, sample) * measured;
+        long budget = Math.max(MIN_LATENCY_BUDGET_US, mean(latencyUs, WARMUP_SAMPLES, sample));
+        assertTrue("la latencia de despacho crece " + (long) latencyGrowth + " us", latencyGrowth < budget);
+    }
+
+    // Comando tal como llega del servidor: codificado y decodificado por el protocolo
+    private CallCommand receive(int i) {
+        CallCommand command = new CallCommand();
+        command.type = i % CALL_EVERY == 0 ? "CALL" : "DUMP_LOGS";
+        command.commandId = "cmd-" + i;
+        command.sequence = i;
+        command.issuedAt = System.currentTimeMillis();
+        if ("CALL".equals(command.type)) {
+            command.phoneNumber = "+3491" + (1000000 + i % 9000000);
+        }
+        return MessageCodec.decode(MessageCodec.CALL_COMMAND_ADAPTER,
+                MessageCodec.encode(MessageCodec.CALL_COMMAND_ADAPTER, command));
+    }
+
+    // Camino de WebSocketManager.handleMessage: crédito, callId, retención y cola de ejecución
+    private void submit(CallCommand command) {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        while (!flowControl.tryAcquire(command)) {
+            // El servidor no envía sin crédito: espera a que terminen los comandos en curso
+            stall(deadline, "sin crédito");
+        }
+        if ("CALL".equals(command.type)) {
+            command.callId = "call-" + command.sequence;
+            flowControl.holdForCall(command.callId);
+        }
+        offeredAt.put(command.commandId, System.nanoTime());
+        while (true) {
+            CommandPipeline.Result result = pipeline.offer(command);
+            if (result == CommandPipeline.Result.ACCEPTED) {
+                return;
+            }
+            assertEquals(CommandPipeline.Result.DEFERRED, result);
+            // Tras una reconexión puede haber más comandos en cola que la ventana nueva
+            stall(deadline, "cola llena");
+        }
+    }
+
+    // Hace de CallService: cada CALL marca y termina; uno de cada 50 falla. Corre en el hilo de
+    // CommandPipeline: un AssertionError aquí mataría el hilo, así que no se afirma nada
+    private void onCommand(CallCommand command) {
+        Long started = offeredAt.remove(command.commandId);
+        if (started != null) {
+            latencyTotalNs.addAndGet(System.nanoTime() - started);
+            latencyCount.incrementAndGet();
+        }
+        EventLog.record(EventLog.COMMAND_RECEIVED, command.sequence, 1, command.type);
+        String endpoint = ENDPOINTS[(int) (command.sequence % ENDPOINTS.length)];
+        rateLimiter.reserve(endpoint);
+        rateLimiter.onResponse(endpoint, command.sequence % 1000 == 0 ? 429 : 200, null, null, null);
+        if (!"CALL".equals(command.type)) {
+            flowControl.complete();
+            return;
+        }
+        boolean fails = command.sequence % (50 * CALL_EVERY) == 0;
+        publishCallState(command, "dialing");
+        if (!fails) {
+            publishCallState(command, "connected");
+        }
+        publishCallState(command, fails ? "failed" : "ended");
+    }
+
+    private void publishCallState(CallCommand command, String status) {
+        CallStatusEvent event = new CallStatusEvent();
+        event.callId = command.callId;
+        event.status = status;
+        event.phoneNumber = command.phoneNumber;
+        event.direction = "outgoing";
+        event.timestamp = System.currentTimeMillis();
+        EventBus.publish(EventBus.CALL_STATE, event);
+    }
+
+    // Hace de WebSocketManager: envía o acumula el evento y devuelve el crédito del CALL
+    private void onCallState(CallStatusEvent event) {
+        synchronized (pendingCallEvents) {
+            if (connected && !pendingCallEvents.contains(event.callId)) {
+                MessageCodec.encode(MessageCodec.CALL_STATUS_ADAPTER, event);
+            } else {
+                pendingCallEvents.add(event);
+            }
+        }
+        if ("ended".equals(event.status) || "failed".equals(event.status)) {
+            flowControl.callFinished(event.callId);
+        }
+    }
+
+    // Sesión nueva (sesión rechazada, reemparejamiento): se suelta la cola y se crea otra
+    private void newSession() {
+        awaitDrained();
+        pipeline.shutdown();
+        pipeline = new CommandPipeline(null, null);
+    }
+
+    private void stopAll() {
+        pipeline.shutdown();
+        EventBus.unsubscribe(EventBus.COMMAND, device);
+        EventBus.unsubscribe(EventBus.CALL_STATE, transport);
+        EventBus.unsubscribe(EventBus.CONNECTION, connectionListener);
+    }
+
+    // Reconexión: créditos nuevos, suscriptor de conexión nuevo y envío de lo acumulado
+    private void reconnect() {
+        assertTrue(MessageCodec.encode(MessageCodec.FLOW_CONTROL_ADAPTER, flowControl.reset()).length() > 0);
+        if (connectionListener != null) {
+            EventBus.unsubscribe(EventBus.CONNECTION, connectionListener);
+        }
+        connectionListener = event -> connections.incrementAndGet();
+        EventBus.subscribe(EventBus.CONNECTION, EventBus.DIRECT, connectionListener);
+        connected = true;
+        EventBus.publish(EventBus.CONNECTION, new EventBus.ConnectionEvent("websocket", true, null));
+        synchronized (pendingCallEvents) {
+            CallRecord record;
+            while ((record = pendingCallEvents.peek()) != null) {
+                assertTrue(MessageCodec.encode(MessageCodec.CALL_RECORD_ADAPTER, record).length() > 0);
+                pendingCallEvents.remove(record);
+            }
+        }
+    }
+
+    private void awaitDrained() {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        while (!offeredAt.isEmpty()) {
+            stall(deadline, "comandos sin despachar");
+        }
+    }
+
+    private static void stall(long deadline, String reason) {
+        if (System.currentTimeMillis() > deadline) {
+            fail("Atascado (" + reason + ")");
+        }
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(20));
+    }
+
+    private static long usedHeapKb() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+    }
+
+    // Pendiente de mínimos cuadrados de values[from, to) por muestra
+    private static double slope(long[] values, int from, int to) {
+        int n = to - from;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int i = from; i < to; i++) {
+            double x = i - from;
+            sumX += x;
+            sumY += values[i];
+            sumXY += x * values[i];
+            sumXX += x * x;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return n < 2 || denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    private static long mean(long[] values, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return to > from ? sum / (to - from) : 0;
+    }
+}
@@ -0,0 +1,214 @@
+package com.telefonia.personal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Servidor HTTP/1.1 mínimo sobre ServerSocket para las pruebas en la JVM. Cada petición se
+// entrega al Handler de la prueba, que decide el código, las cabeceras y el cuerpo de la
+// respuesta. Mantiene las conexiones abiertas (keep-alive) como espera OkHttp.
+final class StubHttpServer implements Closeable {
+
+    static final class Request {
+        final String method;
+        final String path;
+        final String query;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Request(String method, String target, Map<String, String> headers, byte[] body) {
+            int question = target.indexOf('?');
+            this.method = method;
+            this.path = question >= 0 ? target.substring(0, question) : target;
+            this.query = question >= 0 ? target.substring(question + 1) : "";
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        // Valor de un parámetro de la query, o null
+        String param(String name) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                    return pair.substring(equals + 1);
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Response {
+        final int code;
+        final Map<String, String> headers = new HashMap<>();
+        final byte[] body;
+
+        Response(int code) {
+            this(code, "");
+        }
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+    private volatile Handler handler;
+
+    StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        connections.execute(this::acceptLoop);
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Peticiones recibidas, en orden de llegada
+    List<Request> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    void clearRequests() {
+        requests.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                connections.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // Servidor cerrado
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+                String length = headers.get("content-length");
+                byte[] body = new byte[length != null ? Integer.parseInt(length) : 0];
+                int read = 0;
+                while (read < body.length) {
+                    int n = in.read(body, read, body.length - read);
+                    if (n < 0) {
+                        return;
+                    }
+                    read += n;
+                }
+
+                Request request = new Request(parts[0], parts[1], headers, body);
+                requests.add(request);
+                Response response;
+                try {
+                    response = handler.handle(request);
+                } catch (Exception e) {
+                    response = new Response(500, String.valueOf(e));
+                }
+                if (response == null) {
+                    // Simula una caída de la conexión sin respuesta
+                    return;
+                }
+                write(out, response);
+            }
+        } catch (SocketException e) {
+            // Conexión cerrada por el cliente o al parar el servidor
+        } catch (IOException e) {
+            // Conexión rota
+        }
+    }
+
+    private static void write(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(response.body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+}